@@ -0,0 +1,103 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+Checks that simulating a frame of each level allocates almost nothing, so that
+playing never triggers the garbage collector. Each level is stepped headlessly
+until warmed up, then the bytes allocated by the stepping thread over many
+frames are counted. Exits with a failure status if any level allocates more
+than MAX_BYTES_PER_FRAME per frame on average, or if any level stops being
+played before the frames are counted, since a level which has ended measures
+idle NPCs.
+*/
+public class AllocationCheck
+{
+  //Milliseconds simulated per frame, about 60 frames per second.
+  private static final long FRAME_MILLISECONDS = 16;
+  private static final int WARMUP_FRAMES = 3000;
+  private static final int MEASURED_FRAMES = 3000;
+  //Before actors stopped allocating per frame, level 18 allocated about 17.9
+  //KB per frame; afterward, about 0.3 KB.
+  private static final long MAX_BYTES_PER_FRAME = 1024;
+
+  /**
+  Check every level, or the levels given.
+  @param args 1-based level numbers. If none, every level is checked.
+  */
+  public static void main(String[] args) throws IOException
+  {
+    com.sun.management.ThreadMXBean thread_bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    if (!thread_bean.isThreadAllocatedMemorySupported())
+    {
+      System.err.println("Allocated bytes cannot be counted on this JVM.");
+      System.exit(2);
+    }
+    thread_bean.setThreadAllocatedMemoryEnabled(true);
+    long thread_id = Thread.currentThread().getId();
+
+    File res_dir = new File(System.getProperty("thugaim.res", "res"));
+    int[] level_numbers;
+    if (args.length > 0)
+    {
+      level_numbers = new int[args.length];
+      for (int i = 0; i < args.length; ++i)
+        level_numbers[i] = Integer.parseInt(args[i]);
+    }
+    else
+    {
+      int level_count =
+        SyntheticLevel.loadLevels(new File(res_dir, "xml/levels.xml")).size();
+      level_numbers = new int[level_count];
+      for (int i = 0; i < level_count; ++i)
+        level_numbers[i] = i + 1;
+    }
+
+    boolean passed = true;
+    for (int level_number : level_numbers)
+    {
+      SyntheticLevel level = new SyntheticLevel(res_dir, level_number);
+      boolean playing = true;
+      for (int i = 0; i < WARMUP_FRAMES && playing; ++i)
+        playing = level.step(FRAME_MILLISECONDS);
+
+      long started_bytes = thread_bean.getThreadAllocatedBytes(thread_id);
+      for (int i = 0; i < MEASURED_FRAMES && playing; ++i)
+        playing = level.step(FRAME_MILLISECONDS);
+      long bytes_per_frame = (thread_bean.getThreadAllocatedBytes(thread_id) -
+                              started_bytes) / MEASURED_FRAMES;
+
+      if (!playing)
+      {
+        passed = false;
+        System.out.println("Level " + level_number +
+                           ": ended before all frames were counted (FAILED)");
+        continue;
+      }
+      boolean level_passed = bytes_per_frame <= MAX_BYTES_PER_FRAME;
+      passed &= level_passed;
+      System.out.println("Level " + level_number + ": " +
+                         level.getWorld().getActorCount() + " actors, " +
+                         bytes_per_frame + " bytes per frame" +
+                         (level_passed ? "" : " (FAILED)"));
+    }
+
+    if (!passed)
+    {
+      System.err.println("Some levels allocate more than " +
+                         MAX_BYTES_PER_FRAME + " bytes per frame or ended " +
+                         "early.");
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.benchmark;
+
+import info.meoblast001.thugaim.Station;
+import info.meoblast001.thugaim.StationGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+Cost of finding a path between random pairs of stations, with and without the
+routing table.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathfindingBenchmark
+{
+  @Param({ "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13",
+           "14", "15", "16", "17", "18" })
+  public int level;
+
+  @Param({ "false", "true" })
+  public boolean routing_table;
+
+  private StationGraph station_graph;
+  private Station[] stations;
+  //Same sequence of pairs in every run.
+  private Random random = new Random(0);
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException
+  {
+    SyntheticLevel synthetic_level = new SyntheticLevel(
+      new File(System.getProperty("thugaim.res", "res")), level);
+    station_graph = synthetic_level.getStationGraph();
+    station_graph.setRoutingTableEnabled(routing_table);
+    stations = station_graph.getStations();
+  }
+
+  @Benchmark
+  public Queue<Station> approxShortestPath()
+  {
+    return station_graph.approxShortestPath(
+      stations[random.nextInt(stations.length)],
+      stations[random.nextInt(stations.length)]);
+  }
+}
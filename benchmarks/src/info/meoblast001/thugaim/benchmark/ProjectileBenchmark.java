@@ -0,0 +1,62 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.benchmark;
+
+import info.meoblast001.thugaim.ProjectilePool;
+import info.meoblast001.thugaim.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+Per-frame cost of updating a full pool of projectiles, with the sine and cosine
+of rotations computed or looked up in TrigTable. Divide by the pool capacity for
+the cost per projectile.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectileBenchmark
+{
+  private static final long FRAME_MILLISECONDS = 16;
+
+  @Param({ "false", "true" })
+  public boolean trig_table;
+
+  private ProjectilePool projectile_pool;
+  private Player player;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws IOException
+  {
+    SyntheticLevel synthetic_level = new SyntheticLevel(
+      new File(System.getProperty("thugaim.res", "res")), 1);
+    synthetic_level.getEngine().setTrigTableEnabled(trig_table);
+    projectile_pool = synthetic_level.getProjectilePool();
+    player = synthetic_level.getPlayer();
+  }
+
+  @Benchmark
+  public int update()
+  {
+    //Replace projectiles which expired so that the pool stays full.
+    while (projectile_pool.getActiveCount() < projectile_pool.getCapacity())
+    {
+      player.rotate(0.1f);
+      projectile_pool.fire(player);
+    }
+    projectile_pool.update(FRAME_MILLISECONDS, 0.0f, false);
+    return projectile_pool.getActiveCount();
+  }
+}
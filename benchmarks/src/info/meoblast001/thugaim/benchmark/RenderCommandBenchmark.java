@@ -0,0 +1,64 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.benchmark;
+
+import android.graphics.Paint;
+
+import info.meoblast001.thugaim.engine.HeadlessRenderer;
+import info.meoblast001.thugaim.engine.IRenderer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+Cost of enqueueing one frame of render commands. The headless renderer stores
+commands in the same buffers as Graphics, so this measures everything the
+simulation thread does to draw apart from handing the frame over.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderCommandBenchmark
+{
+  //Amount of sprites drawn per frame.
+  @Param({ "50", "200", "1000" })
+  public int bitmaps;
+
+  private HeadlessRenderer renderer;
+  private Paint paint;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    renderer = new HeadlessRenderer(null, SyntheticLevel.SCREEN_WIDTH,
+                                    SyntheticLevel.SCREEN_HEIGHT);
+    paint = new Paint();
+  }
+
+  @Benchmark
+  public int enqueueFrame()
+  {
+    //Positions stay in view so that no sprite is culled.
+    for (int i = 0; i < bitmaps; ++i)
+    {
+      int position = i % 256;
+      renderer.draw(null, position, position, 0.0f, position + 1, position + 1,
+                    0.1f);
+    }
+    renderer.drawShapeHud(IRenderer.Shape.RECTANGLE, IRenderer.PaintType.FILL,
+                          0, 0, 150, 20, paint);
+    renderer.drawTextHud("Level 1", 10, 10, 30.0f, Paint.Align.LEFT, paint,
+                         paint);
+    renderer.finishDraw();
+    return renderer.getFrameCommandCount();
+  }
+}
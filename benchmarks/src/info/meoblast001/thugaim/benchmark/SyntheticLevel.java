@@ -0,0 +1,261 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.benchmark;
+
+import info.meoblast001.thugaim.*;
+import info.meoblast001.thugaim.engine.*;
+import info.meoblast001.thugaim.npc.*;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Vector;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+One level of the game, run headlessly by a {@link ThugaimRuntime
+ThugaimRuntime} and exposing every part of its world so that benchmarks can
+measure each part separately.
+
+Without input the player would fly out of the play area within a few hundred
+frames, ending the level and leaving the NPCs idle. So that every frame measures
+a level being played, the player is invulnerable and is steered away from
+stations and back toward the centre before reaching the edge of the play area.
+*/
+public class SyntheticLevel
+{
+  //Size of the simulated screen, matching a typical phone in landscape.
+  public static final int SCREEN_WIDTH = 1280, SCREEN_HEIGHT = 720;
+  //The player turns back toward the centre beyond this fraction of the
+  //distance from the centre to the edge of the play area.
+  private static final float TURN_BACK_FRACTION = 0.7f;
+  //The player turns away from a station closer than this many of the
+  //station's radii.
+  private static final float STATION_AVOID_RADII = 3.0f;
+  //Strongest rotation input accepted by vehicles.
+  private static final float MAX_ROTATION = 8.0f;
+
+  private ThugaimRuntime runtime;
+  private Engine engine;
+  private HeadlessRenderer renderer;
+
+  /**
+  Build the world of a level headlessly.
+  @param res_dir Directory containing the game's resources.
+  @param level_number 1-based level number.
+  @throws IOException If the resources cannot be read.
+  */
+  public SyntheticLevel(File res_dir, int level_number) throws IOException
+  {
+    runtime = new ThugaimRuntime(loadLevels(new File(res_dir,
+                                                     "xml/levels.xml")));
+    if (!runtime.setLevel(level_number - 1))
+      throw new IllegalArgumentException("No level " + level_number + ".");
+    renderer = new HeadlessRenderer(null, SCREEN_WIDTH, SCREEN_HEIGHT);
+    engine = new Engine(renderer, createSpriteLoader(res_dir), null, runtime,
+                        null);
+    runtime.getPlayer().setInvulnerable(true);
+  }
+
+  /**
+  Steer the player, then simulate and draw one frame.
+  @param millisecond_delta Milliseconds simulated.
+  @return True if the level is still being played, else false.
+  */
+  public boolean step(long millisecond_delta)
+  {
+    engine.setRotation(steerPlayer());
+    return engine.step(millisecond_delta) && isPlaying();
+  }
+
+  /**
+  Is the level still being played: running, with the player in the world?
+  @return True if yes, false if no.
+  */
+  public boolean isPlaying()
+  {
+    return runtime.isRunning() && runtime.getPlayer().getWorld() != null;
+  }
+
+  /**
+  Find the rotation input which keeps the player in the play area and away from
+  stations. Steers straight ahead otherwise.
+  @return Rotation input for the player's next update.
+  */
+  public float steerPlayer()
+  {
+    Player player = runtime.getPlayer();
+    if (player.getWorld() == null)
+      return 0.0f;
+
+    Station station = player.getClosestStation();
+    if (station != null && station.getWorld() != null &&
+        player.distance(station) < station.getRadius() * STATION_AVOID_RADII +
+                                   player.getRadius())
+      return steerToward(player, station.getX(), station.getY(), false);
+
+    float turn_back = getLevel().getPlaySize() / 2 * TURN_BACK_FRACTION;
+    if (Math.abs(player.getX()) > turn_back ||
+        Math.abs(player.getY()) > turn_back)
+      return steerToward(player, 0.0f, 0.0f, true);
+    return 0.0f;
+  }
+
+  /**
+  Find the rotation input which turns the player toward or away from a point.
+  */
+  private static float steerToward(Player player, float x, float y,
+                                   boolean toward)
+  {
+    float delta_x = x - player.getX(), delta_y = y - player.getY();
+    float distance = (float) Math.sqrt(delta_x * delta_x + delta_y * delta_y);
+    if (distance < Float.MIN_VALUE)
+      return 0.0f;
+    float unit_x = player.getRotationUnitX();
+    float unit_y = player.getRotationUnitY();
+    //Positive if the point is clockwise of the player's rotation.
+    float cross = (unit_x * delta_y - unit_y * delta_x) / distance;
+    float dot = (unit_x * delta_x + unit_y * delta_y) / distance;
+    if (!toward)
+    {
+      cross = -cross;
+      dot = -dot;
+    }
+    //Turn fully if facing the wrong way.
+    if (dot < 0.0f)
+      return cross < 0.0f ? -MAX_ROTATION : MAX_ROTATION;
+    return Math.max(-MAX_ROTATION, Math.min(MAX_ROTATION,
+                                            cross * MAX_ROTATION));
+  }
+
+  public ThugaimRuntime getRuntime()
+  {
+    return runtime;
+  }
+
+  public LevelDescriptor getLevel()
+  {
+    return runtime.getCurrentLevelDescriptor();
+  }
+
+  public Engine getEngine()
+  {
+    return engine;
+  }
+
+  public HeadlessRenderer getRenderer()
+  {
+    return renderer;
+  }
+
+  public World getWorld()
+  {
+    return runtime.getWorld();
+  }
+
+  public StationGraph getStationGraph()
+  {
+    return runtime.getStationGraph();
+  }
+
+  public ProjectilePool getProjectilePool()
+  {
+    return runtime.getProjectilePool();
+  }
+
+  public AiScheduler getAiScheduler()
+  {
+    return runtime.getAiScheduler();
+  }
+
+  public Player getPlayer()
+  {
+    return runtime.getPlayer();
+  }
+
+  /**
+  Read every level from the levels file with the parser of ThugaimRuntime,
+  without needing Android resources.
+  @param levels_file Path to levels.xml.
+  @return Level descriptors in order.
+  @throws IOException If the file cannot be read or parsed.
+  */
+  public static Vector<LevelDescriptor> loadLevels(File levels_file)
+    throws IOException
+  {
+    FileReader reader = new FileReader(levels_file);
+    try
+    {
+      XmlPullParser xml_parser =
+        XmlPullParserFactory.newInstance().newPullParser();
+      xml_parser.setInput(reader);
+      return ThugaimRuntime.loadLevels(xml_parser);
+    }
+    catch (XmlPullParserException e)
+    {
+      throw new IOException("Cannot parse " + levels_file, e);
+    }
+    catch (ThugaimRuntime.LoadLevelsException e)
+    {
+      throw new IOException("Cannot parse " + levels_file, e);
+    }
+    finally
+    {
+      reader.close();
+    }
+  }
+
+  /**
+  Create a sprite loader which gives each sprite the size of its PNG file
+  without decoding it.
+  @param res_dir Directory containing the game's resources.
+  @return Sprite loader.
+  @throws IOException If a PNG file cannot be read.
+  */
+  public static HeadlessSpriteLoader createSpriteLoader(File res_dir)
+    throws IOException
+  {
+    HeadlessSpriteLoader loader = new HeadlessSpriteLoader(32, 32);
+    int[] resource_ids = { R.drawable.player, R.drawable.station,
+      R.drawable.hydrogen, R.drawable.helium, R.drawable.projectile,
+      R.drawable.play_area_shield, R.drawable.healthicon };
+    String[] names = { "player", "station", "hydrogen", "helium", "projectile",
+      "play_area_shield", "healthicon" };
+    for (int i = 0; i < resource_ids.length; ++i)
+    {
+      int[] size = readPngSize(new File(res_dir, "drawable/" + names[i] +
+                                                 ".png"));
+      loader.setSize(resource_ids[i], size[0], size[1]);
+    }
+    return loader;
+  }
+
+  /**
+  Read the width and height from the IHDR chunk of a PNG file.
+  */
+  private static int[] readPngSize(File file) throws IOException
+  {
+    DataInputStream input = new DataInputStream(new FileInputStream(file));
+    try
+    {
+      //8 byte signature, 4 byte chunk length and 4 byte chunk type precede the
+      //width and height.
+      input.skipBytes(16);
+      return new int[] { input.readInt(), input.readInt() };
+    }
+    finally
+    {
+      input.close();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.benchmark;
+
+import info.meoblast001.thugaim.engine.BenchmarkHooks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+Per-frame cost of simulating each level while it is being played. The world is
+rebuilt before every iteration because actors are destroyed as the simulation
+progresses. The player is steered and invulnerable, as SyntheticLevel
+describes, so the level never ends during an iteration; if it does anyway, the
+iteration fails rather than measure a finished level.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldBenchmark
+{
+  //Milliseconds simulated per frame, about 60 frames per second.
+  private static final long FRAME_MILLISECONDS = 16;
+
+  @Param({ "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13",
+           "14", "15", "16", "17", "18" })
+  public int level;
+
+  //Threads on which actors think. Results are the same with any amount.
+  @Param({ "1" })
+  public int think_threads;
+
+  private SyntheticLevel synthetic_level;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws IOException
+  {
+    synthetic_level = new SyntheticLevel(
+      new File(System.getProperty("thugaim.res", "res")), level);
+    synthetic_level.getEngine().setThinkThreadCount(think_threads);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown()
+  {
+    //Stop the think threads.
+    synthetic_level.getEngine().setThinkThreadCount(1);
+    if (!synthetic_level.isPlaying())
+    {
+      throw new IllegalStateException("Level " + level +
+                                      " ended during the iteration.");
+    }
+  }
+
+  /**
+  Everything the game simulates in one frame, then finishing the frame's render
+  commands.
+  */
+  @Benchmark
+  public boolean frame()
+  {
+    return synthetic_level.step(FRAME_MILLISECONDS);
+  }
+
+  @Benchmark
+  public void worldUpdate()
+  {
+    synthetic_level.getWorld().update(FRAME_MILLISECONDS,
+                                      synthetic_level.steerPlayer(), false);
+    //Discard the render commands enqueued by the actors.
+    synthetic_level.getRenderer().discardDraw();
+  }
+
+  /**
+  The collision pass which finds the collisions of every actor once all actors
+  are updated in a frame. Actors do not move, so each invocation finds the same
+  collisions.
+  */
+  @Benchmark
+  public void detectCollisions()
+  {
+    BenchmarkHooks.detectCollisions(synthetic_level.getWorld());
+  }
+
+  @Benchmark
+  public void stationGraphUpdate()
+  {
+    synthetic_level.getStationGraph().update();
+  }
+}
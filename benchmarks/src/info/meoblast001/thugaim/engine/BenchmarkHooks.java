@@ -0,0 +1,29 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+/**
+Access to parts of the engine which are not public, so that benchmarks can
+measure them on their own. Only part of the benchmarks, never of the game.
+*/
+public class BenchmarkHooks
+{
+  private BenchmarkHooks()
+  {
+  }
+
+  /**
+  Find the collisions of every actor in a world at its current position, as the
+  world does once all actors are updated in each frame.
+  @param world World whose collisions are found.
+  */
+  public static void detectCollisions(World world)
+  {
+    world.getCollisionSystem().update();
+  }
+}
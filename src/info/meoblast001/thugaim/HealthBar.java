@@ -7,62 +7,91 @@ license. See the LICENSE file for details.
 
 package info.meoblast001.thugaim;
 
-import android.graphics.BitmapFactory;
-import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.Paint;
 
-import info.meoblast001.thugaim.engine.Graphics;
+import info.meoblast001.thugaim.engine.IRenderer;
+import info.meoblast001.thugaim.engine.Sprite;
+import info.meoblast001.thugaim.engine.SpriteCache;
 import info.meoblast001.thugaim.R;
 
 /**
-Thin bar spanning the top of the screen signifying the player's health.
+Thin bar spanning the top of the screen signifying the player's health. Drawn
+in a retained HUD layer, which is only redrawn when the health changes.
 */
 public class HealthBar
 {
-  private Graphics graphics;
-  private Bitmap health_icon = null;
+  private IRenderer graphics;
+  private Sprite health_icon = null;
   private Player player;
+  private int hud_layer;
+  //Health drawn in the HUD layer, or -1 if not yet drawn.
+  private int drawn_health = -1;
 
   private final int MAX_HEALTH_BAR_WIDTH = 150;
   private final int HEALTH_BAR_COLOUR = Color.rgb(204, 0, 0);
 
-  public HealthBar(Graphics graphics, Player player)
+  //Configured once and never changed, since the HUD layer keeps them.
+  private final Paint container_fill = new Paint();
+  private final Paint bar_fill = new Paint();
+  private final Paint container_line = new Paint();
+
+  /**
+  @param graphics Graphics to which the bar is drawn.
+  @param sprite_cache Cache from which the health icon is acquired.
+  @param player Player whose health is shown.
+  @param hud_layer Index of the retained HUD layer in which the bar is drawn.
+  */
+  public HealthBar(IRenderer graphics, SpriteCache sprite_cache, Player player,
+                   int hud_layer)
   {
     this.graphics = graphics;
-    health_icon = BitmapFactory.decodeResource(
-      graphics.getContext().getResources(), R.drawable.healthicon);
+    health_icon = sprite_cache.acquire(R.drawable.healthicon);
     this.player = player;
+    this.hud_layer = hud_layer;
+
+    container_fill.setColor(Color.BLACK);
+    container_fill.setStyle(Paint.Style.FILL);
+    bar_fill.setColor(HEALTH_BAR_COLOUR);
+    bar_fill.setStyle(Paint.Style.FILL);
+    container_line.setColor(Color.WHITE);
+    container_line.setStrokeWidth(1);
+    container_line.setStyle(Paint.Style.STROKE);
   }
 
   public void update()
   {
+    int health = player.getHealth();
+    if (health == drawn_health)
+      return;
+    drawn_health = health;
+
+    //The frame's stroke extends past the bar's right and bottom edges.
+    graphics.beginHudLayer(hud_layer, 0, 0,
+                           health_icon.getWidth() + 3 + MAX_HEALTH_BAR_WIDTH,
+                           health_icon.getHeight() + 1);
+
     //Health icon.
-    graphics.drawHud(health_icon, health_icon.getWidth() / 2,
+    graphics.drawHud(health_icon.getBitmap(), health_icon.getWidth() / 2,
                      health_icon.getHeight() / 2, 0.0f);
 
     //Bar background.
-    Paint container_fill = new Paint();
-    container_fill.setColor(Color.BLACK);
-    graphics.drawShapeHud(Graphics.Shape.RECTANGLE, Graphics.PaintType.FILL,
+    graphics.drawShapeHud(IRenderer.Shape.RECTANGLE, IRenderer.PaintType.FILL,
                           health_icon.getWidth() + 2, 0, MAX_HEALTH_BAR_WIDTH,
                           health_icon.getHeight(), container_fill);
 
     //Bar.
-    Paint bar_fill = new Paint();
-    bar_fill.setColor(HEALTH_BAR_COLOUR);
     int health_bar_width = (int) (MAX_HEALTH_BAR_WIDTH *
-      ((float) player.getHealth() / (float) Player.MAX_HEALTH));
-    graphics.drawShapeHud(Graphics.Shape.RECTANGLE, Graphics.PaintType.FILL,
+      ((float) health / (float) Player.MAX_HEALTH));
+    graphics.drawShapeHud(IRenderer.Shape.RECTANGLE, IRenderer.PaintType.FILL,
                           health_icon.getWidth() + 2, 0, health_bar_width,
                           health_icon.getHeight(), bar_fill);
 
     //Bar frame.
-    Paint container_line = new Paint();
-    container_line.setColor(Color.WHITE);
-    container_line.setStrokeWidth(1);
-    graphics.drawShapeHud(Graphics.Shape.RECTANGLE, Graphics.PaintType.STROKE,
+    graphics.drawShapeHud(IRenderer.Shape.RECTANGLE, IRenderer.PaintType.STROKE,
                           health_icon.getWidth() + 2, 0, MAX_HEALTH_BAR_WIDTH,
                           health_icon.getHeight(), container_line);
+
+    graphics.finishHudLayer();
   }
 }
@@ -17,6 +17,7 @@ public class LevelDescriptor
   private int hydrogen_fighters = 0;
   private int helium_fighters = 0;
   private int play_size = 0;
+  private int max_projectiles = 50;
 
   /**
   Gets the name of the music to play.
@@ -109,4 +110,22 @@ public class LevelDescriptor
   {
     play_size = value;
   }
+
+  /**
+  Gets the maximum amount of projectiles in flight at one time. Defaults to 50.
+  @return The maximum amount of projectiles.
+  */
+  public int getMaxProjectiles()
+  {
+    return max_projectiles;
+  }
+
+  /**
+  Sets the maximum amount of projectiles in flight at one time.
+  @param value The maximum amount of projectiles.
+  */
+  public void setMaxProjectiles(int value)
+  {
+    max_projectiles = value;
+  }
 }
@@ -33,8 +33,6 @@ public class PlayAreaShield extends Actor
   private static final int MIN_MILLIS_FOR_STEP = 200;
   private static final int INDICATOR_DISTANCE_FROM_EDGE = 2;
 
-  private static int current_play_area_shield_id = 0;
-
   private Side side = null;
   private int play_size;
   private int offset; //Movement from starting position.
@@ -43,8 +41,7 @@ public class PlayAreaShield extends Actor
   public PlayAreaShield(Engine engine, int play_size, Side side,
                         int start_offset)
   {
-    super("play_area_shield" + current_play_area_shield_id++, engine,
-          R.drawable.play_area_shield);
+    super(null, engine, R.drawable.play_area_shield);
     this.play_size = play_size;
     this.side = side;
     this.offset = start_offset;
@@ -17,10 +17,11 @@ public class Player extends Vehicle
 {
   public static final int MAX_HEALTH = 50;
 
-  public Player(Engine engine, StationGraph station_graph)
+  public Player(Engine engine, StationGraph station_graph,
+                ProjectilePool projectile_pool)
   {
     super(engine, "player", R.drawable.player, 0.0f, 0.0f, 0.0f, MAX_HEALTH,
-          station_graph);
+          station_graph, projectile_pool);
     setSpeed(1.0f);
   }
 
@@ -34,7 +35,9 @@ public class Player extends Vehicle
     if (!getWorld().isInsidePlayArea(this))
     {
       reduceHealth(MAX_HEALTH); //Destroy player.
-      return;
+      //Still in the world if invulnerable.
+      if (getWorld() == null)
+        return;
     }
 
     if (tapped)
@@ -7,7 +7,6 @@ license. See the LICENSE file for details.
 
 package info.meoblast001.thugaim;
 
-import android.graphics.Point;
 import android.graphics.PointF;
 
 import info.meoblast001.thugaim.engine.Actor;
@@ -15,50 +14,50 @@ import info.meoblast001.thugaim.engine.Engine;
 import info.meoblast001.thugaim.engine.World;
 import info.meoblast001.thugaim.R;
 
-import java.util.LinkedList;
-
 /**
 Ammunition fired by the player and NPCs. Moves continuously in the direction its
-origin was traveling when fired.
+origin was traveling when fired. Projectiles are owned and reused by a
+{@link ProjectilePool ProjectilePool} and are never inserted into the world.
 */
 public class Projectile extends Actor
 {
   public final static float MAX_LENGTH = 300;
 
   private Actor origin;
-  private PointF original_position = null;
-  private static short current_projectile_id = 0;
-  //Static list of all projectiles in the world.
-  private static LinkedList<Projectile> cur_projectiles =
-    new LinkedList<Projectile>();
+  private PointF original_position = new PointF();
 
-  public Projectile(Engine engine, Actor origin)
+  /**
+  Construct a projectile which is not in flight. Should only be called by
+  ProjectilePool.
+  @param engine The game engine.
+  */
+  Projectile(Engine engine)
   {
-    super("projectile_" + (current_projectile_id++), engine,
-          R.drawable.projectile);
-    this.origin = origin;
-
-    original_position = origin.getPosition();
-    move(original_position.x, original_position.y);
-    rotate(origin.getRotation());
+    super(null, engine, R.drawable.projectile);
   }
 
-  @Override
-  public void setWorld(World world)
+  /**
+  Puts this projectile in flight from the position and rotation of an actor.
+  Should only be called by ProjectilePool.
+  @param origin Actor firing the projectile.
+  @param world World in which the projectile flies.
+  */
+  void launch(Actor origin, World world)
   {
-    super.setWorld(world);
+    this.origin = origin;
+    setWorld(world);
 
-    if (world == null)
-      return;
+    original_position.set(origin.getX(), origin.getY());
+    setPosition(original_position.x, original_position.y);
+    rotate(origin.getRotation() - getRotation());
+  }
 
-    //Do not keep more than 50 projectiles in play at one time for performance.
-    cur_projectiles.add(this);
-    if (cur_projectiles.size() > 50)
-    {
-      Projectile to_remove = cur_projectiles.poll();
-      getWorld().removeActor(to_remove.getId());
-      cur_projectiles.remove(to_remove);
-    }
+  /**
+  Ends the flight of this projectile. Its pool will reuse it.
+  */
+  private void expire()
+  {
+    setWorld(null);
   }
 
   /**
@@ -70,50 +69,43 @@ public class Projectile extends Actor
     return origin;
   }
 
+  /**
+  Collisions are found by sweeping along the movement of each frame instead of
+  after each move.
+  */
   @Override
-  public void update(long millisecond_delta, float rotation, boolean tapped)
+  protected boolean isCollisionDetectionOn()
   {
-    clearCollisions();
+    return false;
+  }
 
+  @Override
+  public void update(long millisecond_delta, float rotation, boolean tapped)
+  {
     //If the projectile has moved too far from its original location, delete it.
-    if (distance(original_position) > MAX_LENGTH)
+    if (distanceSquared(original_position.x, original_position.y) >
+        MAX_LENGTH * MAX_LENGTH)
     {
-      getWorld().removeActor(getId());
+      expire();
       return;
     }
 
-    //Make multiple movements per frame. Each movement should be maximally the
-    //size of a projectile. During each movement, collision detection will be
-    //performed. This prevents the projectiles from "passing through" objects.
+    //Find the first damageable actor, other than the one which produced the
+    //projectile, along the whole movement of this frame. Sweeping the
+    //projectile along its path prevents it from "passing through" actors
+    //however long the frame.
     float move_distance = millisecond_delta * 0.5f;
-    Point size = getSize();
-    float average_size = ((float) size.x + (float) size.y) / 2.0f;
-    while (true) {
-      if (move_distance >= average_size) {
-        moveLocal(0.0f, average_size);
-        move_distance -= average_size;
-      } else {
-        moveLocal(0.0f, move_distance);
-        break;
-      }
-    }
-
-    //Check for collisions. Cause damage to objects that take damage.
-    for (Actor actor : getCollisions().toArray(new Actor[0]))
+    Actor hit = getWorld().sweep(this,
+                                 getX() + getRotationUnitX() * move_distance,
+                                 getY() + getRotationUnitY() * move_distance,
+                                 IDamageable.class, getOrigin());
+    moveLocal(0.0f, move_distance);
+
+    //Cause damage to the actor hit and remove the projectile from the world.
+    if (hit != null)
     {
-      if (getWorld() == null || actor.getWorld() == null)
-        break;
-
-      //If collided with a damageable actor that did not produce the projectile,
-      //reduce its health.
-      if (actor instanceof IDamageable && getOrigin() != actor)
-      {
-        IDamageable damageable = (IDamageable) actor;
-        damageable.reduceHealth();
-        //Remove projectile from world.
-        getWorld().removeActor(getId());
-        break;
-      }
+      ((IDamageable) hit).reduceHealth();
+      expire();
     }
 
     draw();
@@ -0,0 +1,113 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim;
+
+import info.meoblast001.thugaim.engine.Actor;
+import info.meoblast001.thugaim.engine.Engine;
+import info.meoblast001.thugaim.engine.World;
+
+/**
+Fixed amount of preallocated projectiles which are reused instead of being
+constructed each time a vehicle fires. Projectiles in the pool are not inserted
+into the world. They use the world for collision detection and are updated by
+the pool.
+*/
+public class ProjectilePool
+{
+  private World world;
+  //Projectiles not in flight.
+  private Projectile[] free;
+  private int free_count;
+  //Projectiles in flight, oldest first.
+  private Projectile[] active;
+  private int active_count = 0;
+
+  /**
+  Construct a pool and all of its projectiles.
+  @param engine The game engine.
+  @param world The world in which projectiles fly.
+  @param capacity Maximum amount of projectiles in flight at one time.
+  */
+  public ProjectilePool(Engine engine, World world, int capacity)
+  {
+    this.world = world;
+    free = new Projectile[capacity];
+    active = new Projectile[capacity];
+    for (int i = 0; i < capacity; ++i)
+      free[i] = new Projectile(engine);
+    free_count = capacity;
+  }
+
+  /**
+  Fires a projectile from an actor. If all projectiles are in flight, the
+  oldest one is reused.
+  @param origin Actor firing the projectile.
+  */
+  public void fire(Actor origin)
+  {
+    if (active.length == 0)
+      return;
+
+    Projectile projectile;
+    if (free_count > 0)
+      projectile = free[--free_count];
+    else
+    {
+      //Reuse the oldest projectile in flight.
+      projectile = active[0];
+      System.arraycopy(active, 1, active, 0, active_count - 1);
+      --active_count;
+    }
+
+    projectile.launch(origin, world);
+    active[active_count++] = projectile;
+  }
+
+  /**
+  Updates all projectiles in flight. Projectiles which expire or hit an actor
+  are returned to the pool.
+  Parameters match those of {@link Actor#update(long, float, boolean)
+  Actor.update()}.
+  */
+  public void update(long millisecond_delta, float rotation, boolean tapped)
+  {
+    //Update each projectile, keeping those still in flight in their original
+    //order.
+    int kept = 0;
+    for (int i = 0; i < active_count; ++i)
+    {
+      Projectile projectile = active[i];
+      projectile.update(millisecond_delta, rotation, tapped);
+      if (projectile.getWorld() != null)
+        active[kept++] = projectile;
+      else
+        free[free_count++] = projectile;
+    }
+    for (int i = kept; i < active_count; ++i)
+      active[i] = null;
+    active_count = kept;
+  }
+
+  /**
+  Get the amount of projectiles in flight.
+  @return Amount of projectiles.
+  */
+  public int getActiveCount()
+  {
+    return active_count;
+  }
+
+  /**
+  Get the maximum amount of projectiles in flight at one time.
+  @return Capacity.
+  */
+  public int getCapacity()
+  {
+    return active.length;
+  }
+}
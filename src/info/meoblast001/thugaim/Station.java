@@ -19,14 +19,14 @@ public class Station extends Actor implements IDamageable
 {
   private static final int MAX_HEALTH = 15;
 
-  private static int cur_station_id = 0;
-
   private StationGraph station_graph;
   private int health = MAX_HEALTH;
+  //Index of this station in its StationGraph. Only managed by StationGraph.
+  int graph_index = -1;
 
   public Station(Engine engine, StationGraph station_graph, float x, float y)
   {
-    super("station_" + (cur_station_id++), engine, R.drawable.station);
+    super(null, engine, R.drawable.station);
     this.station_graph = station_graph;
     move(x, y);
   }
@@ -45,9 +45,6 @@ public class Station extends Actor implements IDamageable
   @Override
   public void update(long millisecond_delta, float rotation, boolean tapped)
   {
-    //No movement, therefore collision detection is not performed automatically.
-    clearCollisions();
-    detectCollisions();
-    draw();
+    //Drawn in the static layer by the station graph.
   }
 }
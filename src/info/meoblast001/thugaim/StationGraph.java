@@ -7,15 +7,17 @@ license. See the LICENSE file for details.
 
 package info.meoblast001.thugaim;
 
-import android.graphics.Point;
+import android.graphics.PointF;
 
 import info.meoblast001.thugaim.engine.Actor;
 import info.meoblast001.thugaim.engine.Engine;
+import info.meoblast001.thugaim.engine.IRenderer;
+import info.meoblast001.thugaim.engine.Sprite;
+import info.meoblast001.thugaim.engine.SpriteCache;
 import info.meoblast001.thugaim.engine.World;
 
+import java.util.Arrays;
 import java.util.Queue;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Vector;
 
@@ -25,16 +27,6 @@ random locations. Edges between stations are built randomly.
 */
 public class StationGraph
 {
-  /**
-  Extra data needed for each station in StationGraph.approxShortestPath.
-  */
-  private class ApproxSearchExtra
-  {
-    public float estimated_cost = Float.POSITIVE_INFINITY;
-    public float cost = Float.POSITIVE_INFINITY;
-    public Station came_from = null;
-  }
-
   private final int UPDATE_AFTER_FRAMES = 5;
   //Amount of free space around stations at initialisation.
   private final float FREE_SURROUNDING_SPACE_AT_INIT = 100.0f;
@@ -47,9 +39,32 @@ public class StationGraph
 
   private Station[] stations;
   private boolean[][] edges;
+  //Distances between every pair of stations. Stations never move.
+  private float[][] distances;
+  //Finds the station nearest to a point.
+  private StationIndex station_index;
+  private int station_count;
 
   private int frames_since_update = UPDATE_AFTER_FRAMES;
 
+  //Scratch space for searches, indexed by station index. Reused by every search
+  //to avoid allocation.
+  private float[] search_cost;
+  private float[] search_estimated_cost;
+  private int[] search_came_from;
+  private boolean[] search_closed;
+  //Binary min-heap of station indices ordered by search_estimated_cost, and the
+  //position of each station in the heap (-1 if not in the heap).
+  private int[] heap;
+  private int heap_size = 0;
+  private int[] heap_position;
+
+  //Optional all-pairs routing table. next_hop[i][j] is the station following i
+  //on the shortest path from i to j, or -1 if there is no path.
+  //route_came_from[i][j] is the station preceding j on that path.
+  private int[][] next_hop = null;
+  private int[][] route_came_from = null;
+
   public StationGraph(Engine engine, World world, int num_stations,
                       int play_size)
   {
@@ -59,10 +74,11 @@ public class StationGraph
     stations = new Station[num_stations];
     edges = new boolean[num_stations][num_stations];
 
-    //Create a station object so that the size of one is known.
-    Station unused_station = new Station(engine, this, 0, 0);
-    Point station_size = unused_station.getSize();
-    float avg_station_size = (station_size.x + station_size.y) / 2.0f;
+    //Get the station sprite so that the size of one is known.
+    SpriteCache sprite_cache = engine.getSpriteCache();
+    Sprite station_sprite = sprite_cache.acquire(R.drawable.station);
+    float avg_station_size = station_sprite.getRadius() * 2.0f;
+    sprite_cache.release(station_sprite);
 
     //If world is too small to place stations, fail construction.
     float init_min_distance = avg_station_size / 2.0f +
@@ -78,6 +94,7 @@ public class StationGraph
     for (int i = 0; i < stations.length; ++i)
     {
       int placement_attempts = MAX_PLACEMENT_ATTEMPTS;
+      PointF position = new PointF();
       do
       {
         //Generate random X and Y values relative to the area allowed for
@@ -97,16 +114,17 @@ public class StationGraph
         else
           rand_y -= init_min_distance;
 
-        //Create a station at this position.
-        stations[i] = new Station(engine, this, rand_x, rand_y);
+        position.set(rand_x, rand_y);
 
-        //If the station overlays another actor in the world, try placing again.
-        //If too many attempts occur, stop attempting and simply place it.
+        //If the station would overlay another actor in the world, try placing
+        //again. If too many attempts occur, stop attempting and simply place
+        //it.
         --placement_attempts;
-      } while (world.hasActorAt(stations[i].getPosition(),
-        avg_station_size / 2.0f) && placement_attempts > 0);
+      } while (world.hasActorAt(position, avg_station_size / 2.0f) &&
+               placement_attempts > 0);
 
-      //Place the station.
+      //Create and place the station.
+      stations[i] = new Station(engine, this, position.x, position.y);
       world.insertActor(stations[i]);
     }
 
@@ -115,10 +133,39 @@ public class StationGraph
     for (int i = 0; i < edges.length; ++i)
       for (int j = 0; j < edges[i].length; ++j)
         edges[i][j] = i == j ? false : Math.random() > 0.2;
+
+    station_count = stations.length;
+    station_index = new StationIndex(stations, play_size);
+    drawStations();
+
+    distances = new float[num_stations][num_stations];
+    for (int i = 0; i < stations.length; ++i)
+    {
+      stations[i].graph_index = i;
+      for (int j = 0; j < stations.length; ++j)
+        distances[i][j] = stations[i].distance(stations[j]);
+    }
+
+    search_cost = new float[num_stations];
+    search_estimated_cost = new float[num_stations];
+    search_came_from = new int[num_stations];
+    search_closed = new boolean[num_stations];
+    heap = new int[num_stations];
+    heap_position = new int[num_stations];
+  }
+
+  /**
+  Get the amount of stations remaining in the graph.
+  @return Amount of stations.
+  */
+  public int getStationCount()
+  {
+    return station_count;
   }
 
   /**
-  Get all stations in graph.
+  Get all stations in graph. Allocates a new array; prefer getStationCount() if
+  only the amount is needed.
   @return Array of stations.
   */
   public Station[] getStations()
@@ -136,16 +183,32 @@ public class StationGraph
   */
   public void remove(Station station)
   {
-    world.removeActor(station.getId());
+    world.removeActor(station);
 
-    for (int i = 0; i < stations.length; ++i)
-    {
-      if (station == stations[i])
-      {
-        stations[i] = null;
-        break;
-      }
-    }
+    int index = indexOf(station);
+    if (index == -1)
+      return;
+    stations[index] = null;
+    --station_count;
+    station_index.rebuild();
+    drawStations();
+
+    if (next_hop != null)
+      updateRoutingTable(index);
+  }
+
+  /**
+  Replace the static layer of the graphics with the remaining stations, which
+  never move.
+  */
+  private void drawStations()
+  {
+    IRenderer graphics = engine.getGraphics();
+    graphics.beginStaticLayer();
+    for (Station station : stations)
+      if (station != null)
+        station.drawStatic();
+    graphics.finishStaticLayer();
   }
 
   /**
@@ -157,17 +220,9 @@ public class StationGraph
   */
   public Station[] getAdjacentStations(Station station)
   {
-    //Locate the station's index in the list of stations.
-    int station_index = -1;
-    for (int i = 0; i < stations.length; ++i)
-    {
-      if (station == stations[i])
-      {
-        station_index = i;
-        break;
-      }
-    }
-    //If nothing found, return null. This station does not exist in the graph.
+    //Locate the station's index in the list of stations. If nothing found,
+    //return null. This station does not exist in the graph.
+    int station_index = indexOf(station);
     if (station_index == -1)
       return null;
 
@@ -190,28 +245,15 @@ public class StationGraph
   */
   public Station getClosestStation(Actor actor)
   {
-    Station with_lowest_distance = null;
-    float lowest_distance = Float.MAX_VALUE;
-
-    for (Station station : stations)
-    {
-      if (station == null)
-        continue;
-
-      float distance = station.distance(actor);
-      if (distance < lowest_distance)
-      {
-        with_lowest_distance = station;
-        lowest_distance = distance;
-      }
-    }
-
-    return with_lowest_distance;
+    return station_index.findNearest(actor,
+      station_index.cellOf(actor.getX(), actor.getY()));
   }
 
   /**
-  Updates graph: finds closest station to each actor in world. Does not occur at
-  every frame.
+  Updates graph: finds closest station to each vehicle in world. Does not occur
+  at every frame. A vehicle's closest station is only searched for again if the
+  vehicle moved to another cell of the station index, its cell has more than
+  one candidate, or stations were removed.
   */
   public void update()
   {
@@ -219,37 +261,53 @@ public class StationGraph
       return;
     frames_since_update = 0;
 
-    //For each vehicle in the world, determine which station is the closest.
-    Actor[] actors = world.getActors();
-    for (Actor actor: actors)
+    int version = station_index.getVersion();
+    for (int i = 0; i < world.getActorCount(); ++i)
     {
+      Actor actor = world.getActorAt(i);
       if (!(actor instanceof Vehicle))
         continue;
       Vehicle vehicle = (Vehicle) actor;
 
-      //Iterate over each station until the closest one is found.
-      Station closest_station = null;
-      float closest_station_distance = Float.MAX_VALUE;
-      for (Station station : stations)
-      {
-        if (station == null)
-          continue;
-
-        float new_distance = vehicle.distance(station);
-        if (new_distance < closest_station_distance)
-        {
-          closest_station = station;
-          closest_station_distance = new_distance;
-        }
-      }
+      int cell = station_index.cellOf(vehicle.getX(), vehicle.getY());
+      if (cell != -1 && cell == vehicle.station_cell &&
+          version == vehicle.station_index_version &&
+          station_index.getCandidateCount(cell) == 1)
+        continue;
+      vehicle.station_cell = cell;
+      vehicle.station_index_version = version;
+      vehicle.setClosestStation(station_index.findNearest(vehicle, cell));
+    }
+  }
 
-      vehicle.setClosestStation(closest_station);
+  /**
+  Enable or disable the all-pairs routing table. If enabled, the shortest path
+  between every pair of stations is computed now and kept up to date as
+  stations are removed, so
+  #{@link #approxShortestPath(Station, Station) approxShortestPath()} only needs
+  to follow the table.
+  @param enabled True to enable, false to disable.
+  */
+  public void setRoutingTableEnabled(boolean enabled)
+  {
+    if (!enabled)
+    {
+      next_hop = null;
+      route_came_from = null;
+      return;
     }
+    if (next_hop != null)
+      return;
+
+    next_hop = new int[stations.length][stations.length];
+    route_came_from = new int[stations.length][stations.length];
+    for (int i = 0; i < stations.length; ++i)
+      computeRoutes(i);
   }
 
   /**
-  Find an approximated shortest path between two stations. Uses A* algorithm to
-  find the result.
+  Find an approximated shortest path between two stations. Uses the routing
+  table if enabled, else the A* algorithm.
   @param start Beginning station in path.
   @param end Station to search.
   @return Path of stations from start to end. Null if a best path could not be
@@ -257,99 +315,239 @@ public class StationGraph
   */
   public Queue<Station> approxShortestPath(Station start, Station end)
   {
-    //Create a hash from station IDs to extra data needed for this algorithm.
-    HashMap<String, ApproxSearchExtra> station_extras =
-      new HashMap<String, ApproxSearchExtra>();
-    for (Station station : getStations())
-      station_extras.put(station.getId(), new ApproxSearchExtra());
+    int start_index = indexOf(start), end_index = indexOf(end);
+    if (start_index == -1 || end_index == -1)
+      return null;
+
+    if (next_hop != null)
+    {
+      if (start_index != end_index && next_hop[start_index][end_index] == -1)
+        return null;
+
+      LinkedList<Station> path = new LinkedList<Station>();
+      for (int current = start_index; current != end_index;
+           current = next_hop[current][end_index])
+        path.add(stations[current]);
+      path.add(end);
+      return path;
+    }
 
-    HashSet<Station> closed = new HashSet<Station>();
-    HashSet<Station> open = new HashSet<Station>();
-    open.add(start);
+    if (!search(start_index, end_index))
+      return null;
+
+    LinkedList<Station> path = new LinkedList<Station>();
+    for (int current = end_index; current != -1;
+         current = search_came_from[current])
+      path.addFirst(stations[current]);
+    return path;
+  }
 
-    while (open.size() > 0)
+  /**
+  Runs a search over the station indices using the scratch arrays. With a goal,
+  this is A* using straight line distance as the heuristic. Without a goal
+  (goal_index is -1), this is Dijkstra's algorithm over all stations.
+  @param start_index Index of the beginning station.
+  @param goal_index Index of the station to find, or -1 to find paths to all
+    stations.
+  @return True if the goal was found (always true without a goal).
+  */
+  private boolean search(int start_index, int goal_index)
+  {
+    Arrays.fill(search_cost, Float.POSITIVE_INFINITY);
+    Arrays.fill(search_estimated_cost, Float.POSITIVE_INFINITY);
+    Arrays.fill(search_came_from, -1);
+    Arrays.fill(search_closed, false);
+    Arrays.fill(heap_position, -1);
+    heap_size = 0;
+
+    search_cost[start_index] = 0.0f;
+    search_estimated_cost[start_index] = goal_index == -1 ? 0.0f :
+      distances[start_index][goal_index];
+    heapPush(start_index);
+
+    while (heap_size > 0)
     {
-      //Current is the item in the open set with the lowest estimated cost.
-      Station current = null;
-      ApproxSearchExtra current_extra = null;
-      for (Station element : open)
-      {
-        if (current == null && current_extra == null)
-        {
-          current = element;
-          current_extra = station_extras.get(element.getId());
-        }
-        else
-        {
-          ApproxSearchExtra extra = station_extras.get(element.getId());
-          if (extra.estimated_cost < current_extra.estimated_cost)
-          {
-            current = element;
-            current_extra = extra;
-          }
-        }
-      }
+      //Current is the station in the open set with the lowest estimated cost.
+      int current = heapPop();
 
-      //If the current station is the end station, then we're done.
-      if (current == end)
-        return buildApproxShortestPathResult(end, station_extras);
+      //If the current station is the goal, then we're done.
+      if (current == goal_index)
+        return true;
 
-      //Station is no longer in the open set and is now in the closed set
-      //because it was traversed.
-      open.remove(current);
-      closed.add(current);
+      //Station is now in the closed set because it was traversed.
+      search_closed[current] = true;
 
-      for (Station neighbour : getAdjacentStations(current))
+      boolean[] current_edges = edges[current];
+      for (int neighbour = 0; neighbour < current_edges.length; ++neighbour)
       {
-        //Do nothing if neighbour is already in the closed set.
-        if (closed.contains(neighbour))
+        //Do nothing if there is no edge, the neighbour was removed from the
+        //graph, or the neighbour is already in the closed set.
+        if (!current_edges[neighbour] || stations[neighbour] == null ||
+            search_closed[neighbour])
           continue;
 
-        ApproxSearchExtra neighbour_extra =
-          station_extras.get(neighbour.getId());
-
-        //Cost of movement to this neighbour.
-        float attempt_cost = current_extra.cost + current.distance(neighbour);
-
-        //If not in the open set, add the neighbour to the open set so that it
-        //will be traversed later.
-        if (!open.contains(neighbour))
-          open.add(neighbour);
-        //If this path is more costly than another path to this station, then
-        //this path cannot be optimal.
-        else if (attempt_cost >= neighbour_extra.cost)
+        //Cost of movement to this neighbour. If this path is more costly than
+        //another path to this station, then this path cannot be optimal.
+        float attempt_cost = search_cost[current] +
+                             distances[current][neighbour];
+        if (attempt_cost >= search_cost[neighbour])
           continue;
 
         //This is now the best path to this neighbour. Store this information.
-        neighbour_extra.came_from = current;
-        neighbour_extra.cost = attempt_cost;
-        neighbour_extra.estimated_cost = attempt_cost +
-                                         neighbour.distance(end);
+        search_came_from[neighbour] = current;
+        search_cost[neighbour] = attempt_cost;
+        search_estimated_cost[neighbour] = attempt_cost + (goal_index == -1 ?
+          0.0f : distances[neighbour][goal_index]);
+
+        //Add to the open set so that it will be traversed later, or move it
+        //toward the top of the heap if already in the open set.
+        if (heap_position[neighbour] == -1)
+          heapPush(neighbour);
+        else
+          heapSiftUp(heap_position[neighbour]);
       }
     }
 
-    return null;
+    return goal_index == -1;
   }
 
   /**
-  Build the result of the approximate shortest path algorithm once the shortest
-  path has been found.
-  @param current The goal station.
-  @param current_extra The extra algorithm-specific data of the goal station.
-  @return Path of stations from start to end.
+  Compute the routes in the routing table from one station to all others.
+  @param source Index of the station from which routes begin.
   */
-  private Queue<Station> buildApproxShortestPathResult(Station current,
-    HashMap<String, ApproxSearchExtra> station_extras)
+  private void computeRoutes(int source)
   {
-    LinkedList<Station> path = new LinkedList<Station>();
+    int[] hops = next_hop[source];
+    int[] came_from = route_came_from[source];
+    Arrays.fill(hops, -1);
+    Arrays.fill(came_from, -1);
+    if (stations[source] == null)
+      return;
 
-    ApproxSearchExtra extra = null;
-    do {
-      extra = station_extras.get(current.getId());
-      path.addFirst(current);
-      current = extra.came_from;
-    } while (current != null);
+    search(source, -1);
+    System.arraycopy(search_came_from, 0, came_from, 0, came_from.length);
 
-    return path;
+    //The next hop toward each station is the first station after the source
+    //on its path.
+    for (int target = 0; target < hops.length; ++target)
+    {
+      if (target == source || came_from[target] == -1)
+        continue;
+      int hop = target;
+      while (came_from[hop] != source)
+        hop = came_from[hop];
+      hops[target] = hop;
+    }
+  }
+
+  /**
+  Update the routing table after a station is removed. Only routes from
+  sources whose paths passed through the removed station are recomputed.
+  @param removed Index of the removed station.
+  */
+  private void updateRoutingTable(int removed)
+  {
+    for (int source = 0; source < stations.length; ++source)
+    {
+      if (stations[source] == null)
+      {
+        Arrays.fill(next_hop[source], -1);
+        continue;
+      }
+
+      boolean passed_through = false;
+      int[] came_from = route_came_from[source];
+      for (int target = 0; target < came_from.length; ++target)
+      {
+        if (came_from[target] == removed)
+        {
+          passed_through = true;
+          break;
+        }
+      }
+
+      if (passed_through)
+        computeRoutes(source);
+      else
+      {
+        //The removed station can no longer be reached.
+        next_hop[source][removed] = -1;
+        came_from[removed] = -1;
+      }
+    }
+  }
+
+  /**
+  Get the index of a station in the graph.
+  @param station Station to find.
+  @return Index or -1 if the station is not in the graph.
+  */
+  private int indexOf(Station station)
+  {
+    if (station == null || station.graph_index < 0 ||
+        station.graph_index >= stations.length ||
+        stations[station.graph_index] != station)
+      return -1;
+    return station.graph_index;
+  }
+
+  private void heapPush(int station_index)
+  {
+    heap[heap_size] = station_index;
+    heap_position[station_index] = heap_size;
+    heapSiftUp(heap_size++);
+  }
+
+  private int heapPop()
+  {
+    int top = heap[0];
+    heap_position[top] = -1;
+    --heap_size;
+    if (heap_size > 0)
+    {
+      heap[0] = heap[heap_size];
+      heap_position[heap[0]] = 0;
+      heapSiftDown(0);
+    }
+    return top;
+  }
+
+  private void heapSiftUp(int position)
+  {
+    int station_index = heap[position];
+    float cost = search_estimated_cost[station_index];
+    while (position > 0)
+    {
+      int parent = (position - 1) / 2;
+      if (search_estimated_cost[heap[parent]] <= cost)
+        break;
+      heap[position] = heap[parent];
+      heap_position[heap[position]] = position;
+      position = parent;
+    }
+    heap[position] = station_index;
+    heap_position[station_index] = position;
+  }
+
+  private void heapSiftDown(int position)
+  {
+    int station_index = heap[position];
+    float cost = search_estimated_cost[station_index];
+    while (true)
+    {
+      int child = position * 2 + 1;
+      if (child >= heap_size)
+        break;
+      if (child + 1 < heap_size && search_estimated_cost[heap[child + 1]] <
+                                   search_estimated_cost[heap[child]])
+        ++child;
+      if (search_estimated_cost[heap[child]] >= cost)
+        break;
+      heap[position] = heap[child];
+      heap_position[heap[position]] = position;
+      position = child;
+    }
+    heap[position] = station_index;
+    heap_position[station_index] = position;
   }
 }
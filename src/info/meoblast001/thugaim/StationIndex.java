@@ -0,0 +1,166 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim;
+
+import info.meoblast001.thugaim.engine.Actor;
+
+/**
+Finds the station nearest to a point without comparing every station. The play
+area is divided into a grid, and each cell lists the only stations which can be
+nearest to a point in the cell (the stations whose Voronoi regions overlap the
+cell, plus a few more). Stations never move, so the lists are only rebuilt when
+stations are removed.
+*/
+class StationIndex
+{
+  //Width and height of each cell. Larger cells list more stations.
+  private static final float CELL_SIZE = 256.0f;
+
+  private final Station[] stations;
+  private final int cells_per_side;
+  private final float origin;
+  //Indices in the stations array of the candidates of each cell.
+  private final int[][] candidates;
+  //Incremented each time the candidates are rebuilt.
+  private int version = 0;
+  //Scratch space for rebuilding, indexed by station index.
+  private final float[] rebuild_distances;
+  private final int[] rebuild_candidates;
+
+  /**
+  Construct and build index.
+  @param stations Stations of the graph by index, null where removed. Kept and
+    read again by rebuild().
+  @param play_size Width and height of the play area.
+  */
+  public StationIndex(Station[] stations, int play_size)
+  {
+    this.stations = stations;
+    cells_per_side = Math.max(1, (int) Math.ceil(play_size / CELL_SIZE));
+    origin = -(cells_per_side * CELL_SIZE) / 2.0f;
+    candidates = new int[cells_per_side * cells_per_side][];
+    rebuild_distances = new float[stations.length];
+    rebuild_candidates = new int[stations.length];
+    rebuild();
+  }
+
+  /**
+  Rebuild the candidates of every cell. Call after stations are removed.
+  */
+  public void rebuild()
+  {
+    //Every point in a cell is within half of its diagonal from its centre. The
+    //nearest station to any point in the cell is therefore within the distance
+    //of the nearest station to the centre plus the whole diagonal.
+    float diagonal = CELL_SIZE * (float) Math.sqrt(2.0);
+    for (int row = 0; row < cells_per_side; ++row)
+    {
+      for (int column = 0; column < cells_per_side; ++column)
+      {
+        float centre_x = origin + (column + 0.5f) * CELL_SIZE;
+        float centre_y = origin + (row + 0.5f) * CELL_SIZE;
+        float nearest = Float.MAX_VALUE;
+        for (int i = 0; i < stations.length; ++i)
+        {
+          if (stations[i] == null)
+            continue;
+          rebuild_distances[i] = stations[i].distance(centre_x, centre_y);
+          nearest = Math.min(nearest, rebuild_distances[i]);
+        }
+
+        int count = 0;
+        for (int i = 0; i < stations.length; ++i)
+        {
+          if (stations[i] != null &&
+              rebuild_distances[i] <= nearest + diagonal)
+            rebuild_candidates[count++] = i;
+        }
+        int[] cell = new int[count];
+        System.arraycopy(rebuild_candidates, 0, cell, 0, count);
+        candidates[row * cells_per_side + column] = cell;
+      }
+    }
+    ++version;
+  }
+
+  /**
+  Get a number which changes each time the candidates are rebuilt.
+  @return Version.
+  */
+  public int getVersion()
+  {
+    return version;
+  }
+
+  /**
+  Get the cell containing a point.
+  @param x X position.
+  @param y Y position.
+  @return Index of the cell, or -1 if outside of the grid.
+  */
+  public int cellOf(float x, float y)
+  {
+    int column = (int) Math.floor((x - origin) / CELL_SIZE);
+    int row = (int) Math.floor((y - origin) / CELL_SIZE);
+    if (column < 0 || column >= cells_per_side || row < 0 ||
+        row >= cells_per_side)
+      return -1;
+    return row * cells_per_side + column;
+  }
+
+  /**
+  Get the amount of stations which may be nearest to a point in a cell.
+  @param cell Index of the cell, or -1 for outside of the grid.
+  @return Amount of stations.
+  */
+  public int getCandidateCount(int cell)
+  {
+    return cell == -1 ? stations.length : candidates[cell].length;
+  }
+
+  /**
+  Find the station nearest to an actor.
+  @param actor Actor from which distances are measured.
+  @param cell Cell containing the actor, from cellOf().
+  @return Nearest station, or null if no stations remain.
+  */
+  public Station findNearest(Actor actor, int cell)
+  {
+    Station nearest = null;
+    float nearest_distance = Float.MAX_VALUE;
+    if (cell == -1)
+    {
+      //Outside of the grid any station may be nearest.
+      for (int i = 0; i < stations.length; ++i)
+      {
+        if (stations[i] == null)
+          continue;
+        float distance = actor.distanceSquared(stations[i]);
+        if (distance < nearest_distance)
+        {
+          nearest = stations[i];
+          nearest_distance = distance;
+        }
+      }
+      return nearest;
+    }
+
+    int[] cell_candidates = candidates[cell];
+    for (int i = 0; i < cell_candidates.length; ++i)
+    {
+      Station station = stations[cell_candidates[i]];
+      float distance = actor.distanceSquared(station);
+      if (distance < nearest_distance)
+      {
+        nearest = station;
+        nearest_distance = distance;
+      }
+    }
+    return nearest;
+  }
+}
@@ -24,6 +24,9 @@ import android.view.View;
 
 import info.meoblast001.thugaim.engine.*;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
 Play activity. During initialisation, starts the Engine, which runs on its own
 thread. After initialisation, forwards events to Engine.
@@ -31,6 +34,9 @@ thread. After initialisation, forwards events to Engine.
 public class Thugaim extends ShutdownHandlingActivity
   implements View.OnTouchListener, SensorEventListener
 {
+  //File in the app's private files to which profiler reports are appended.
+  private static final String PROFILER_REPORT_FILE = "profiler.txt";
+
   private ThugaimRuntime runtime = null;
   private Sensor accelerometer = null;
   private Engine engine = null;
@@ -74,6 +80,8 @@ public class Thugaim extends ShutdownHandlingActivity
         }
       }
 
+      //Actors think only on the engine thread, the engine's default, until
+      //more think threads are measured to be faster on a device.
       engine = new Engine(graphics, audio, runtime, this);
       engine.start();
     }
@@ -156,6 +164,29 @@ public class Thugaim extends ShutdownHandlingActivity
         engine.shutdown();
         System.exit(0);
         return false;
+      case R.id.menu_profiler:
+        //Toggle the profiler overlay. When hidden, its last report is logged
+        //and appended to a file, which a debug build can read with
+        //"adb shell run-as info.meoblast001.thugaim cat files/profiler.txt".
+        if (engine != null)
+        {
+          Profiler profiler = engine.getProfiler();
+          profiler.setEnabled(!profiler.isEnabled());
+          if (!profiler.isEnabled())
+          {
+            profiler.dumpToLog();
+            try
+            {
+              profiler.dumpToFile(new File(getFilesDir(),
+                                           PROFILER_REPORT_FILE));
+            }
+            catch (IOException e)
+            {
+              //The report is still in the log.
+            }
+          }
+        }
+        return true;
       default:
         return super.onOptionsItemSelected(item);
     }
@@ -9,9 +9,6 @@ package info.meoblast001.thugaim;
 
 import android.content.Context;
 import android.content.res.Resources;
-import android.content.res.XmlResourceParser;
-import android.graphics.BitmapFactory;
-import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PointF;
@@ -22,6 +19,7 @@ import info.meoblast001.thugaim.npc.*;
 import java.io.IOException;
 import java.util.Vector;
 
+import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 /**
@@ -40,20 +38,51 @@ public class ThugaimRuntime implements IGameRuntime
 
   private static final long SHOW_LEVEL_COMPLETE_BEFORE_END_MILIS = 3000;
   public static final int CHECKPOINT_INTERVAL = 2;
+  //Microseconds per frame for expensive NPC decisions.
+  public static final long AI_BUDGET_MICROSECONDS = 1000;
+  //Pre-rotated sprites may use at most the heap size divided by this.
+  private static final long ROTATION_CACHE_HEAP_DIVISOR = 16;
+  //Retained HUD layers.
+  private static final int HUD_LAYER_HEALTH = 0;
+  private static final int HUD_LAYER_LEVEL_NUMBER = 1;
+  private static final int HUD_LAYER_LEVEL_COMPLETE = 2;
+  private static final float HUD_TEXT_SIZE = 30.0f;
+  //Space around HUD text in its layer, so that its outline is not cut off.
+  private static final int HUD_TEXT_MARGIN = 4;
 
   private Engine engine;
   private Context context;
 
   private World world;
   private StationGraph station_graph;
+  private ProjectilePool projectile_pool;
+  private AiScheduler ai_scheduler;
   private Player player;
   private HealthBar health_bar;
   private boolean player_won = false, player_lost = false;
+  private int stations_phase, ai_phase, projectiles_phase, hud_phase;
   private long started_level_complete_millis = Long.MAX_VALUE;
 
-  //Level information.
+  //HUD text, formatted once, and its paints, configured once and never changed
+  //since the HUD layers keep them.
+  private String level_number_text = null, level_complete_text = null;
+  private final Paint level_number_fill =
+    createTextPaint(Color.BLACK, Paint.Style.FILL, Paint.Align.LEFT);
+  private final Paint level_number_stroke =
+    createTextPaint(Color.WHITE, Paint.Style.STROKE, Paint.Align.LEFT);
+  private final Paint level_complete_fill =
+    createTextPaint(Color.rgb(0, 100, 0), Paint.Style.FILL, Paint.Align.CENTER);
+  private final Paint level_complete_stroke =
+    createTextPaint(Color.WHITE, Paint.Style.STROKE, Paint.Align.CENTER);
+  //Screen size for which each text's HUD layer was drawn, or 0 if not drawn.
+  private int level_number_drawn_height = 0;
+  private int level_complete_drawn_width = 0, level_complete_drawn_height = 0;
+
+  //Level information. Levels loaded from resources are kept for later
+  //runtimes.
   private static int current_level = 0;
-  private static Vector<LevelDescriptor> levels = null;
+  private static Vector<LevelDescriptor> loaded_levels = null;
+  private final Vector<LevelDescriptor> levels;
 
   //Checkpoint information.
   private static int checkpoint_level = 0;
@@ -67,8 +96,20 @@ public class ThugaimRuntime implements IGameRuntime
   */
   public ThugaimRuntime(Resources resources) throws LoadLevelsException
   {
-    if (levels == null)
-      loadLevels(resources);
+    if (loaded_levels == null)
+      loaded_levels = loadLevels(resources);
+    levels = loaded_levels;
+  }
+
+  /**
+  Constructs game runtime with levels which are not loaded from resources, such
+  as when running headlessly. Levels loaded from resources by other runtimes are
+  unaffected.
+  @param levels Level descriptors. Must contain at least one level.
+  */
+  public ThugaimRuntime(Vector<LevelDescriptor> levels)
+  {
+    this.levels = levels;
   }
 
   public void init(Engine engine)
@@ -76,32 +117,68 @@ public class ThugaimRuntime implements IGameRuntime
     this.engine = engine;
     context = engine.getGraphics().getContext();
 
+    Profiler profiler = engine.getProfiler();
+    stations_phase = profiler.addPhase("stations");
+    ai_phase = profiler.addPhase("ai scheduler");
+    projectiles_phase = profiler.addPhase("projectiles");
+    hud_phase = profiler.addPhase("hud");
+
     //Get the level descriptor for this level.
     LevelDescriptor level = getCurrentLevelDescriptor();
 
+    //Decode all sprites before play so that no decoding occurs while playing.
+    engine.getSpriteCache().preload(R.drawable.player, R.drawable.station,
+      R.drawable.hydrogen, R.drawable.helium, R.drawable.projectile,
+      R.drawable.play_area_shield, R.drawable.healthicon);
+    //Vehicles and projectiles rotate freely, so draw them from frames rendered
+    //now at fixed angles. Devices with small heaps render fewer angles.
+    SpriteRotationCache rotation_cache = engine.getSpriteRotationCache();
+    rotation_cache.setBudget(Math.min(SpriteRotationCache.DEFAULT_BUDGET_BYTES,
+      Runtime.getRuntime().maxMemory() / ROTATION_CACHE_HEAP_DIVISOR));
+    for (int resource_id : new int[] { R.drawable.player, R.drawable.hydrogen,
+           R.drawable.helium, R.drawable.projectile })
+    {
+      Sprite sprite = engine.getSpriteCache().acquire(resource_id);
+      rotation_cache.prerender(sprite);
+      engine.getSpriteCache().release(sprite);
+    }
+
     //Only show what's in the play area.
     int half_play_size = level.getPlaySize() / 2;
     engine.getGraphics().enableClip(-half_play_size, half_play_size,
                                     half_play_size, -half_play_size);
 
     world = new World(engine, level.getPlaySize());
+    configureLevelOfDetail(world.getLodScheduler());
     station_graph = new StationGraph(engine, world, level.getStations(),
         level.getPlaySize());
+    //Helium fighters search for paths between stations frequently.
+    if (level.getHeliumFighters() > 0)
+      station_graph.setRoutingTableEnabled(true);
+
+    projectile_pool = new ProjectilePool(engine, world,
+                                         level.getMaxProjectiles());
+    ai_scheduler = new AiScheduler(AI_BUDGET_MICROSECONDS);
 
-    player = new Player(engine, station_graph);
+    player = new Player(engine, station_graph, projectile_pool);
     world.insertActor(player);
-    world.focusOnActor("player");
+    world.focusOnActor(player);
 
     HydrogenFighter.generateAll(engine, world, level.getPlaySize(),
-                                station_graph, level.getHydrogenFighters());
+                                station_graph, projectile_pool,
+                                level.getHydrogenFighters());
     HeliumFighter.generateAll(engine, world, level.getPlaySize(), station_graph,
-                              level.getHeliumFighters());
+                              projectile_pool, level.getHeliumFighters());
 
-    health_bar = new HealthBar(engine.getGraphics(), player);
+    health_bar = new HealthBar(engine.getGraphics(), engine.getSpriteCache(),
+                               player, HUD_LAYER_HEALTH);
     PlayAreaShield.generateAll(engine, world, level.getPlaySize());
 
     //Start music if it exists and the user selected music to be played, else
-    //stop any currently playing music.
+    //stop any currently playing music. There may be no audio or context when
+    //running headlessly.
+    if (engine.getAudio() == null || context == null)
+      return;
     if (level.getMusic() != null && music_enabled)
     {
       int res_id = context.getResources().getIdentifier(level.getMusic(), "raw",
@@ -114,14 +191,29 @@ public class ThugaimRuntime implements IGameRuntime
 
   public void update(long millisecond_delta, float rotation, boolean tapped)
   {
+    Profiler profiler = engine.getProfiler();
+    long started = profiler.begin();
     station_graph.update();
+    profiler.end(stations_phase, started);
+
     world.update(millisecond_delta, rotation, tapped);
+
+    started = profiler.begin();
+    ai_scheduler.update(world, player.getWorld() != null ? player : null);
+    profiler.end(ai_phase, started);
+
+    started = profiler.begin();
+    projectile_pool.update(millisecond_delta, rotation, tapped);
+    profiler.end(projectiles_phase, started);
+
+    started = profiler.begin();
     health_bar.update();
     displayLevelNumber();
+    profiler.end(hud_phase, started);
 
     //Player won if there are no stations remaining and the player didn't
     //already lose.
-    if (station_graph.getStations().length == 0 && !player_lost)
+    if (station_graph.getStationCount() == 0 && !player_lost)
       player_won = true;
     //Player lost if it's no longer in the world and has not already won.
     if (player.getWorld() == null && !player_won)
@@ -161,7 +253,7 @@ public class ThugaimRuntime implements IGameRuntime
   {
     if (current_level < levels.size())
     {
-      this.current_level = current_level;
+      ThugaimRuntime.current_level = current_level;
       //If the level is higher than the last checkpoint and is a checkpoint
       //itself, set this checkpoint as reached.
       if (current_level > checkpoint_level &&
@@ -173,6 +265,51 @@ public class ThugaimRuntime implements IGameRuntime
       return false;
   }
 
+  /**
+  Get the world of the current level.
+  @return World reference.
+  */
+  public World getWorld()
+  {
+    return world;
+  }
+
+  /**
+  Get the station graph of the current level.
+  @return StationGraph reference.
+  */
+  public StationGraph getStationGraph()
+  {
+    return station_graph;
+  }
+
+  /**
+  Get the pool from which projectiles are fired in the current level.
+  @return ProjectilePool reference.
+  */
+  public ProjectilePool getProjectilePool()
+  {
+    return projectile_pool;
+  }
+
+  /**
+  Get the player of the current level, even once no longer in the world.
+  @return Player reference.
+  */
+  public Player getPlayer()
+  {
+    return player;
+  }
+
+  /**
+  Get the scheduler of expensive NPC decisions.
+  @return AiScheduler reference.
+  */
+  public AiScheduler getAiScheduler()
+  {
+    return ai_scheduler;
+  }
+
   /**
   Return the current level descriptor.
   @return Level descriptor
@@ -195,19 +332,32 @@ public class ThugaimRuntime implements IGameRuntime
   /**
   Load all of the level descriptions from the XML file.
   @param resources Activity's resources.
+  @return Level descriptors in order.
   @throws LoadLevelsException If levels file cannot be loaded.
   */
-  private static boolean loadLevels(Resources resources) throws
+  private static Vector<LevelDescriptor> loadLevels(Resources resources) throws
     LoadLevelsException
+  {
+    return loadLevels(resources.getXml(R.xml.levels));
+  }
+
+  /**
+  Load all of the level descriptions from a parser of the levels XML file, such
+  as one reading it from outside of the resources when running headlessly.
+  @param xml_parser Parser positioned at the start of the file.
+  @return Level descriptors in order.
+  @throws LoadLevelsException If levels file cannot be loaded.
+  */
+  public static Vector<LevelDescriptor> loadLevels(XmlPullParser xml_parser)
+    throws LoadLevelsException
   {
     try
     {
-      levels = new Vector<LevelDescriptor>();
-      XmlResourceParser xml_parser = resources.getXml(R.xml.levels);
+      Vector<LevelDescriptor> levels = new Vector<LevelDescriptor>();
       int event_type = xml_parser.getEventType();
-      while (event_type != XmlResourceParser.END_DOCUMENT)
+      while (event_type != XmlPullParser.END_DOCUMENT)
       {
-        if (event_type == XmlResourceParser.START_TAG &&
+        if (event_type == XmlPullParser.START_TAG &&
             xml_parser.getName().equals("level"))
         {
           LevelDescriptor level = new LevelDescriptor();
@@ -227,6 +377,8 @@ public class ThugaimRuntime implements IGameRuntime
               level.setHeliumFighters(Integer.parseInt(attr_value));
             else if (attr_name.equals("play_size"))
               level.setPlaySize(Integer.parseInt(attr_value));
+            else if (attr_name.equals("max_projectiles"))
+              level.setMaxProjectiles(Integer.parseInt(attr_value));
             //Else ignore this attribute.
           }
 
@@ -235,7 +387,7 @@ public class ThugaimRuntime implements IGameRuntime
         event_type = xml_parser.next();
       }
 
-      return true;
+      return levels;
     }
     catch (XmlPullParserException e)
     {
@@ -261,19 +413,48 @@ public class ThugaimRuntime implements IGameRuntime
   }
 
   /**
-  Displays the current level at the bottom-left of the screen.
+  Set how often each class of actors is updated at each distance from the
+  player, in screens. Stations are only seen, so they need not be updated off
+  screen. Shields are seldom updated off screen but never frozen, since their
+  movement along the edges must include all elapsed time for the shields on
+  each edge to stay evenly spaced. Hydrogen fighters wander, so distant ones are
+  frozen, while helium fighters hunt the player from anywhere and are never
+  frozen.
+  @param lod_scheduler Scheduler of the world.
+  */
+  public static void configureLevelOfDetail(LodScheduler lod_scheduler)
+  {
+    lod_scheduler.setTiers(Station.class, new float[] { 1.0f },
+                           new int[] { 1 });
+    lod_scheduler.setTiers(PlayAreaShield.class,
+                           new float[] { 1.0f, Float.POSITIVE_INFINITY },
+                           new int[] { 1, 20 });
+    lod_scheduler.setTiers(HydrogenFighter.class,
+                           new float[] { 1.0f, 2.0f, 4.0f },
+                           new int[] { 1, 4, 20 });
+    lod_scheduler.setTiers(HeliumFighter.class,
+                           new float[] { 1.0f, 2.0f, Float.POSITIVE_INFINITY },
+                           new int[] { 1, 4, 20 });
+  }
+
+  /**
+  Displays the current level at the bottom-left of the screen. Its HUD layer is
+  only redrawn if the height of the screen changes, which moves it.
   */
   private void displayLevelNumber()
   {
-    Paint fill = new Paint();
-    fill.setColor(Color.BLACK);
-    Paint stroke = new Paint();
-    stroke.setColor(Color.WHITE);
-    Graphics graphics = engine.getGraphics();
-    graphics.drawTextHud(context.getString(R.string.level_number_indicator,
-                                           current_level + 1),
-                         10, graphics.getHeight() - 10, 30.0f,
-                         Paint.Align.LEFT, fill, stroke);
+    IRenderer graphics = engine.getGraphics();
+    if (context == null || graphics.getHeight() == level_number_drawn_height)
+      return;
+    level_number_drawn_height = graphics.getHeight();
+    if (level_number_text == null)
+    {
+      level_number_text = context.getString(R.string.level_number_indicator,
+                                            current_level + 1);
+    }
+    drawTextLayer(HUD_LAYER_LEVEL_NUMBER, level_number_text, 10,
+                  graphics.getHeight() - 10, level_number_fill,
+                  level_number_stroke);
   }
 
   /**
@@ -285,13 +466,68 @@ public class ThugaimRuntime implements IGameRuntime
     if (started_level_complete_millis == Long.MAX_VALUE)
       started_level_complete_millis = System.currentTimeMillis();
 
-    Paint fill = new Paint();
-    fill.setARGB(255, 0, 100, 0);
-    Paint stroke = new Paint();
-    stroke.setColor(Color.WHITE);
-    Graphics graphics = engine.getGraphics();
-    graphics.drawTextHud(context.getString(R.string.level_complete),
-                         graphics.getWidth() / 2, graphics.getHeight() / 2,
-                         30.0f, Paint.Align.CENTER, fill, stroke);
+    //The HUD layer is only redrawn if the size of the screen changes.
+    IRenderer graphics = engine.getGraphics();
+    if (context == null ||
+        (graphics.getWidth() == level_complete_drawn_width &&
+         graphics.getHeight() == level_complete_drawn_height))
+      return;
+    level_complete_drawn_width = graphics.getWidth();
+    level_complete_drawn_height = graphics.getHeight();
+    if (level_complete_text == null)
+      level_complete_text = context.getString(R.string.level_complete);
+    drawTextLayer(HUD_LAYER_LEVEL_COMPLETE, level_complete_text,
+                  graphics.getWidth() / 2, graphics.getHeight() / 2,
+                  level_complete_fill, level_complete_stroke);
+  }
+
+  /**
+  Replace a retained HUD layer with outlined text, sized to fit the text.
+  @param layer Index of the HUD layer.
+  @param text Text to draw.
+  @param x The X position on the screen at which to draw the base of the text.
+  @param y The Y position on the screen at which to draw the base of the text.
+  @param fill Paint filling the text, from createTextPaint().
+  @param stroke Paint outlining the text, from createTextPaint() with the same
+    alignment.
+  */
+  private void drawTextLayer(int layer, String text, int x, int y, Paint fill,
+                             Paint stroke)
+  {
+    Paint.Align align = fill.getTextAlign();
+    int width = (int) Math.ceil(fill.measureText(text)) + HUD_TEXT_MARGIN * 2;
+    int left = x - HUD_TEXT_MARGIN;
+    if (align == Paint.Align.CENTER)
+      left = x - width / 2;
+    else if (align == Paint.Align.RIGHT)
+      left = x + HUD_TEXT_MARGIN - width;
+    //Text extends above the base by about its size and below by a third of it.
+    int top = y - (int) HUD_TEXT_SIZE - HUD_TEXT_MARGIN;
+    int height = (int) (HUD_TEXT_SIZE * 4.0f / 3.0f) + HUD_TEXT_MARGIN * 2;
+
+    IRenderer graphics = engine.getGraphics();
+    graphics.beginHudLayer(layer, left, top, width, height);
+    graphics.drawTextHud(text, x, y, HUD_TEXT_SIZE, align, fill, stroke);
+    graphics.finishHudLayer();
+  }
+
+  /**
+  Create a paint for HUD text which needs no configuration while drawing.
+  @param colour Colour of the paint.
+  @param style Style of the paint: fill for text, stroke for its outline.
+  @param align Alignment of the base to the text.
+  @return Paint.
+  */
+  private static Paint createTextPaint(int colour, Paint.Style style,
+                                       Paint.Align align)
+  {
+    Paint paint = new Paint();
+    paint.setColor(colour);
+    paint.setStyle(style);
+    paint.setTextSize(HUD_TEXT_SIZE);
+    paint.setTextAlign(align);
+    if (style == Paint.Style.STROKE)
+      paint.setStrokeWidth(1);
+    return paint;
   }
 }
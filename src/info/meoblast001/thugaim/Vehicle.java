@@ -7,11 +7,11 @@ license. See the LICENSE file for details.
 
 package info.meoblast001.thugaim;
 
-import android.graphics.PointF;
-
 import info.meoblast001.thugaim.engine.Engine;
 import info.meoblast001.thugaim.engine.Actor;
 
+import java.util.List;
+
 /**
 Abstract actor class for vehicles. Each class of vehicles must define specific
 behaviour.
@@ -21,18 +21,26 @@ public abstract class Vehicle extends Actor implements IDamageable
   private Engine engine = null;
   private float speed = 1.0f;
   private int health = 1;
+  private boolean invulnerable = false;
   private long last_fired_millis = 0;
   private StationGraph station_graph = null;
+  private ProjectilePool projectile_pool = null;
   private Station closest_station = null;
 
+  //Cell of the station index and its version when the closest station was last
+  //found. Only managed by StationGraph.
+  int station_cell = -1;
+  int station_index_version = -1;
+
   public Vehicle(Engine engine, String id, int bitmap_resource, float x,
                  float y, float rotation, int health,
-                 StationGraph station_graph)
+                 StationGraph station_graph, ProjectilePool projectile_pool)
   {
     super(id, engine, bitmap_resource);
     this.engine = engine;
     this.health = health;
     this.station_graph = station_graph;
+    this.projectile_pool = projectile_pool;
     move(x, y);
     rotate(rotation);
   }
@@ -74,7 +82,7 @@ public abstract class Vehicle extends Actor implements IDamageable
     long cur_millis = System.currentTimeMillis();
     if (cur_millis > last_fired_millis + 100)
     {
-      getWorld().insertActor(new Projectile(engine, this));
+      projectile_pool.fire(this);
       last_fired_millis = cur_millis;
     }
   }
@@ -88,6 +96,16 @@ public abstract class Vehicle extends Actor implements IDamageable
     return health;
   }
 
+  /**
+  Sets whether damage is ignored, so that the vehicle is never destroyed. Used
+  to keep the player alive while simulating a level headlessly.
+  @param invulnerable True if damage is ignored, false if not.
+  */
+  public void setInvulnerable(boolean invulnerable)
+  {
+    this.invulnerable = invulnerable;
+  }
+
   /**
   Reduces health by 1 via {@link #reduceHealth(int) reduceHealth()}.
   */
@@ -99,34 +117,40 @@ public abstract class Vehicle extends Actor implements IDamageable
 
   /**
   Reduces health. If health reaches zero, actor is removed from the world.
+  Does nothing if invulnerable.
   @param amount Amount by which to reduce health.
   */
   protected void reduceHealth(int amount)
   {
+    if (invulnerable)
+      return;
     health -= amount;
     if (health <= 0)
-      getWorld().removeActor(getId());
+      getWorld().removeActor(this);
   }
 
   @Override
   public void update(long millisecond_delta, float rotation, boolean tapped)
   {
-    clearCollisions();
-    moveLocal(0, speed * 0.12f * (float) millisecond_delta);
-
-    //If collides with a foreign projectile or station, take damage.
-    for (Actor actor : getCollisions().toArray(new Actor[0]))
+    //Handle collisions found by the world after the previous update. If
+    //collides with a station, take damage.
+    List<Actor> collisions = getCollisions();
+    for (int i = 0; i < collisions.size(); ++i)
     {
-      //Don't continue processing collisions if getWorld() returns null. If it
-      //does, the vehicle has already been removed from the world.
-      if (getWorld() == null)
-        break;
-
-      //Collision with a station destroys vehicle.
-      if (actor instanceof Station)
+      Actor actor = collisions.get(i);
+      //Collision with a station destroys vehicle, unless the station was
+      //destroyed since the collision was found.
+      if (actor instanceof Station && actor.getWorld() != null)
+      {
         reduceHealth(Integer.MAX_VALUE);
+        //Still in the world if invulnerable.
+        if (getWorld() == null)
+          return;
+        break;
+      }
     }
 
+    moveLocal(0, speed * 0.12f * (float) millisecond_delta);
     draw();
   }
 
@@ -7,13 +7,11 @@ license. See the LICENSE file for details.
 
 package info.meoblast001.thugaim.engine;
 
-import android.graphics.BitmapFactory;
-import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.PointF;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
 Object in the game world. Abstract and must be extended to build classes of game
@@ -21,36 +19,77 @@ objects to be instantiated.
 */
 public abstract class Actor
 {
-  private final int FRAMES_UNTIL_PCA_RECALCULATE = 20;
-  private final float PCA_DISTANCE = 50;
-
   private String id;
   private Engine engine;
-  private Bitmap bitmap = null;
+  private Sprite sprite = null;
+  private boolean disposed = false;
   private World world = null;
   private float x = 0.0f, y = 0.0f;
   private float rotation = 0.0f;
-  private HashSet<Actor> collisions = new HashSet<Actor>();
-
-  private HashSet<Actor> possible_collision_actors = new HashSet<Actor>();
-  private int frames_since_pca_recalculate = FRAMES_UNTIL_PCA_RECALCULATE;
-
-  private long idle_milliseconds = 0;
-  private int idle_frames = (int) (Math.random() * 20);
+  //Sine and cosine of the rotation, recomputed only when it changes.
+  private float rotation_sin = 0.0f, rotation_cos = 1.0f;
+  //Lists rather than sets so that iterating them by index allocates nothing.
+  //Each actor is added at most once.
+  private ArrayList<Actor> collisions = new ArrayList<Actor>();
+
+  //Index of the cell in the world's spatial grid. Only managed by SpatialGrid.
+  int grid_cell = -1;
+  //Handle and index in the world's actor array. Only managed by World.
+  int handle = -1;
+  int actor_index = -1;
+
+  //State when last drawn, used as the previous state for interpolation.
+  private int drawn_x = 0, drawn_y = 0;
+  private float drawn_rotation = 0.0f;
+  private int drawn_frame = Integer.MIN_VALUE;
+  private boolean teleported = false;
+
+  //Level of detail state. Only managed by LodScheduler.
+  LodScheduler.Tiers lod_tiers = null;
+  int lod_tiers_version = 0;
+  int lod_countdown = 0;
+  long lod_milliseconds = 0;
 
   public Actor(String id, Engine engine, int bitmap_resource)
   {
     this.id = id;
     this.engine = engine;
-    bitmap = BitmapFactory.decodeResource(
-      engine.getGraphics().getContext().getResources(), bitmap_resource);
+    sprite = engine.getSpriteCache().acquire(bitmap_resource);
   }
 
+  /**
+  Release resources held by this actor. Called when the actor is removed from
+  the world. The actor must not be inserted into a world afterward.
+  */
+  public void dispose()
+  {
+    if (!disposed)
+    {
+      engine.getSpriteCache().release(sprite);
+      disposed = true;
+    }
+  }
+
+  /**
+  Get the ID string, a name by which the world can find this actor. Only
+  needed for lookup by name and debugging; may be null.
+  @return ID string.
+  */
   public String getId()
   {
     return id;
   }
 
+  /**
+  Get the handle by which this actor's world can find it with
+  {@link World#getActor(int)}. Cheaper to store and look up than the ID string.
+  @return Handle, or -1 if not in a world.
+  */
+  public int getHandle()
+  {
+    return handle;
+  }
+
   public World getWorld()
   {
     return world;
@@ -59,10 +98,13 @@ public abstract class Actor
   public void setWorld(World world)
   {
     this.world = world;
+    //Collisions in the previous world are irrelevant.
+    collisions.clear();
   }
 
   /**
-  Get position of actor in world.
+  Get position of actor in world. Allocates a new PointF; prefer getX() and
+  getY() in code which runs every frame.
   @return X and Y position as PointF.
   */
   public PointF getPosition()
@@ -71,12 +113,35 @@ public abstract class Actor
   }
 
   /**
-  Set position of actor in world. Do not update collisions.
+  Get X position of actor in world.
+  @return X position.
+  */
+  public float getX()
+  {
+    return x;
+  }
+
+  /**
+  Get Y position of actor in world.
+  @return Y position.
+  */
+  public float getY()
+  {
+    return y;
+  }
+
+  /**
+  Set position of actor in world. Do not update collisions. The actor is not
+  interpolated from its previous position when next drawn.
   */
   public void setPosition(float x, float y)
   {
     this.x = x;
     this.y = y;
+    teleported = true;
+
+    if (world != null)
+      world.actorMoved(this);
   }
 
   /**
@@ -89,12 +154,41 @@ public abstract class Actor
   }
 
   /**
-  Get width and height.
+  Get width and height. Allocates a new Point; prefer getWidth() and
+  getHeight() in code which runs every frame.
   @return Point where X is width and Y is height.
   */
   public Point getSize()
   {
-    return new Point(bitmap.getWidth(), bitmap.getHeight());
+    return new Point(sprite.getWidth(), sprite.getHeight());
+  }
+
+  /**
+  Get width.
+  @return Width in world units.
+  */
+  public int getWidth()
+  {
+    return sprite.getWidth();
+  }
+
+  /**
+  Get height.
+  @return Height in world units.
+  */
+  public int getHeight()
+  {
+    return sprite.getHeight();
+  }
+
+  /**
+  Get the radius used for radial collisions: half of the average of the width
+  and height.
+  @return Radius in world units.
+  */
+  public float getRadius()
+  {
+    return sprite.getRadius();
   }
 
   /**
@@ -104,7 +198,19 @@ public abstract class Actor
   */
   public void rotate(float rotation)
   {
+    if (rotation == 0.0f)
+      return;
     this.rotation += rotation;
+    if (engine.isTrigTableEnabled())
+    {
+      rotation_sin = TrigTable.sin(this.rotation);
+      rotation_cos = TrigTable.cos(this.rotation);
+    }
+    else
+    {
+      rotation_sin = (float) Math.sin(this.rotation);
+      rotation_cos = (float) Math.cos(this.rotation);
+    }
   }
 
   /**
@@ -117,7 +223,9 @@ public abstract class Actor
     this.x += x;
     this.y += y;
 
-    if (isCollisionDetectionOn())
+    if (world != null)
+      world.actorMoved(this);
+    if (isCollisionDetectionOn() && !isInCollisionPass())
       detectCollisions();
   }
 
@@ -128,18 +236,34 @@ public abstract class Actor
   */
   public void moveLocal(float x, float y)
   {
-    this.x += Math.sin(rotation) * y;
-    this.y += -Math.cos(rotation) * y;
-
-    this.x += -Math.cos(rotation) * x;
-    this.y += Math.sin(rotation) * x;
+    this.x += rotation_sin * y - rotation_cos * x;
+    this.y += -rotation_cos * y + rotation_sin * x;
 
-    if (isCollisionDetectionOn())
+    if (world != null)
+      world.actorMoved(this);
+    if (isCollisionDetectionOn() && !isInCollisionPass())
       detectCollisions();
   }
 
   /**
-  Implements logic executed per frame for each class of actors.
+  Decides what the actor will do in its next update, changing only this actor's
+  own decisions (such as whether to fire) and nothing the world or other actors
+  read. Called for every actor updated in a frame before any of them are
+  updated, possibly on several threads at once, so the world and all actors are
+  unchanged while thinking. Must not use shared state which changes when read,
+  such as Math.random(), so that the results do not depend on the amount of
+  threads. Expensive decisions belong here; acting on them (moving, firing,
+  removing actors) belongs in update(). Does nothing by default. Parameters
+  match those of {@link #update(long, float, boolean) update()}.
+  */
+  public void think(long millisecond_delta, float rotation, boolean tapped)
+  {
+  }
+
+  /**
+  Implements logic executed per frame for each class of actors. Actors far from
+  the focus of their world may be called less often than every frame, as
+  decided by the world's {@link LodScheduler}.
   @param millisecond_delta Amount of milliseconds that elapsed between the last
     call to this method and the current call.
   @param rotation The current rotation of the device. NOT necessarily the amount
@@ -150,21 +274,14 @@ public abstract class Actor
                               boolean tapped);
 
   /**
-  To increase performance, called instead of update() for instances which are
-  outside of the relevant play area. The actual update() call occurs less
-  frequently but with a millisecond_delta accumulating all missed frames.
-  Parameters match those of {@link #update(long, float, boolean) update()}.
+  Draws the actor in the static layer of the Graphics instance at its current
+  position, for actors which never move. Called while the static layer is being
+  replaced, instead of draw() in each update.
   */
-  public void idleUpdate(long millisecond_delta, float rotation, boolean tapped)
+  public void drawStatic()
   {
-    idle_milliseconds += millisecond_delta;
-    ++idle_frames;
-    if (idle_frames == 20)
-    {
-      update(idle_milliseconds, rotation, tapped);
-      idle_milliseconds = 0;
-      idle_frames = 0;
-    }
+    engine.getGraphics().drawStatic(sprite.getBitmap(), Math.round(x),
+                                    Math.round(y), rotation);
   }
 
   /**
@@ -172,7 +289,26 @@ public abstract class Actor
   */
   public void draw()
   {
-    engine.getGraphics().draw(bitmap, Math.round(x), Math.round(y), rotation);
+    IRenderer graphics = engine.getGraphics();
+    int frame = graphics.getFrameNumber();
+    int round_x = Math.round(x), round_y = Math.round(y);
+
+    //Interpolate from the state drawn at the previous simulation step. If not
+    //drawn at the previous step, there is nothing to interpolate from.
+    if (drawn_frame != frame - 1 || teleported)
+    {
+      drawn_x = round_x;
+      drawn_y = round_y;
+      drawn_rotation = rotation;
+    }
+    graphics.draw(sprite.getBitmap(), drawn_x, drawn_y, drawn_rotation, round_x,
+                  round_y, rotation);
+
+    drawn_x = round_x;
+    drawn_y = round_y;
+    drawn_rotation = rotation;
+    drawn_frame = frame;
+    teleported = false;
   }
 
   /**
@@ -182,7 +318,7 @@ public abstract class Actor
   */
   public float distance(Actor other)
   {
-    return distance(other.getPosition());
+    return (float) Math.sqrt(distanceSquared(other.x, other.y));
   }
 
   /**
@@ -192,9 +328,42 @@ public abstract class Actor
   */
   public float distance(PointF other_pos)
   {
-    PointF this_pos = getPosition();
-    return (float) Math.sqrt(Math.pow(other_pos.y - this_pos.y, 2) +
-                             Math.pow(other_pos.x - this_pos.x, 2));
+    return (float) Math.sqrt(distanceSquared(other_pos.x, other_pos.y));
+  }
+
+  /**
+  Determines the distance between this actor and a point.
+  @param other_x X position of the point.
+  @param other_y Y position of the point.
+  @return Distance in world units.
+  */
+  public float distance(float other_x, float other_y)
+  {
+    return (float) Math.sqrt(distanceSquared(other_x, other_y));
+  }
+
+  /**
+  Determines the square of the distance between this actor and another actor.
+  Cheaper than distance() when only comparing distances.
+  @param other Actor to which the distance is being found.
+  @return Squared distance in world units.
+  */
+  public float distanceSquared(Actor other)
+  {
+    return distanceSquared(other.x, other.y);
+  }
+
+  /**
+  Determines the square of the distance between this actor and a point.
+  Cheaper than distance() when only comparing distances.
+  @param other_x X position of the point.
+  @param other_y Y position of the point.
+  @return Squared distance in world units.
+  */
+  public float distanceSquared(float other_x, float other_y)
+  {
+    float delta_x = other_x - x, delta_y = other_y - y;
+    return delta_x * delta_x + delta_y * delta_y;
   }
 
   /**
@@ -208,10 +377,11 @@ public abstract class Actor
   }
 
   /**
-  Get all actors with which this actor collided.
-  @return Set of Actors.
+  Get all actors with which this actor collided. Each actor appears once. Must
+  not be modified.
+  @return List of Actors.
   */
-  public Set<Actor> getCollisions()
+  public List<Actor> getCollisions()
   {
     return collisions;
   }
@@ -221,98 +391,89 @@ public abstract class Actor
   */
   protected void clearCollisions()
   {
-    collisions = new HashSet<Actor>();
+    collisions.clear();
   }
 
   /**
-  Find collisions and add them to the list of collisions that occurred. Perform
-  #{@see #clearCollisions() clearCollisions()} before each frame to remove these
-  collisions.
+  Add an actor to the collisions. Only called by CollisionSystem.
+  */
+  void addCollision(Actor actor)
+  {
+    collisions.add(actor);
+  }
+
+  /**
+  Find collisions with actors in the world at the current position and add them
+  to the list of collisions that occurred. Only needed by actors which are not
+  inserted into their world, since the world finds the collisions of its actors
+  once per frame. Perform #{@see #clearCollisions() clearCollisions()} before
+  each frame to remove these collisions.
   */
   protected void detectCollisions()
   {
     if (world == null)
       return;
-
-    //Periorically update the list of actors with which this actor may collide.
-    if (frames_since_pca_recalculate >= FRAMES_UNTIL_PCA_RECALCULATE)
-      recalculatePossibleCollisionActors();
-    ++frames_since_pca_recalculate;
-
-    //Iterate through actors this actor may collide with and check for
-    //radial collisions.
-    for (Actor actor : possible_collision_actors)
-    {
-      //This actor doesn't collide with itself.
-      if (actor == this)
-        continue;
-
-      //Use the average size of each actor using X and Y sizes.
-      Point this_size = getSize();
-      float this_avg_size = ((float) this_size.x + (float) this_size.y) / 2.0f;
-
-      Point other_size = actor.getSize();
-      float other_avg_size = ((float) other_size.x + (float) other_size.y) /
-                             2.0f;
-
-      //Sum the average size of both actors and halve the sum. If closer, a
-      //radial collision occurred.
-      float max_collide_distance = (this_avg_size + other_avg_size) / 2;
-
-      if (distance(actor) < max_collide_distance)
-        collisions.add(actor);
-    }
+    world.getCollisionSystem().detect(this, collisions);
   }
 
   /**
-  To simplify the calculation of collisions, periodically do a full scan of
-  which actors this actor may collide with.
-  #{@link #detectCollisions() detectCollisions()} will only check those actors.
+  Is this actor's collision detection done by its world's collision pass?
   */
-  private void recalculatePossibleCollisionActors()
+  private boolean isInCollisionPass()
   {
-    possible_collision_actors = new HashSet<Actor>();
-
-    for (Actor actor : world.getActors())
-      if (distance(actor) < PCA_DISTANCE)
-        possible_collision_actors.add(actor);
-
-    frames_since_pca_recalculate = 0;
+    return grid_cell >= 0;
   }
 
   /**
-  Get a unit vector representing the rotation of this actor.
+  Get a unit vector representing the rotation of this actor. Allocates a new
+  PointF; prefer getRotationUnitX() and getRotationUnitY() in code which runs
+  every frame.
   @return Unit vector as PointF from (0, 0) to the point.
   */
   public PointF getRotationUnitVector()
   {
-    float rotation = getRotation();
-    return new PointF((float) Math.sin(rotation),
-                      (float) -Math.cos(rotation));
+    return new PointF(getRotationUnitX(), getRotationUnitY());
   }
 
   /**
-  Produced a unit vector from one point to another.
-  @param from Point from which the unit vector will start.
-  @param to Point to which the unit vector points.
-  @return Unit vector as PointF from (0, 0) to the point.
+  Get the X component of the unit vector representing the rotation of this
+  actor.
+  @return X component.
   */
-  protected PointF getUnitVectorToTarget(PointF from, PointF to)
+  public float getRotationUnitX()
   {
-    to = new PointF(to.x - from.x, to.y - from.y);
-    float to_magn = (float) Math.sqrt(Math.pow(to.x, 2.0f) +
-                                      Math.pow(to.y, 2.0f));
-    if (to_magn < Float.MIN_VALUE && to_magn > -Float.MIN_VALUE)
-      return new PointF(0.0f, 0.0f);
-    else
-      return new PointF(to.x / to_magn, to.y / to_magn);
+    return rotation_sin;
+  }
+
+  /**
+  Get the Y component of the unit vector representing the rotation of this
+  actor.
+  @return Y component.
+  */
+  public float getRotationUnitY()
+  {
+    return -rotation_cos;
   }
 
   /**
-  Determines the cross product of two 2D points.
+  Determines the cross product of the unit vector representing the rotation of
+  this actor and the unit vector from one point to another. Positive if the
+  second point is clockwise of the rotation as seen from the first point,
+  negative if counter-clockwise.
+  @param from_x X position from which the unit vector starts.
+  @param from_y Y position from which the unit vector starts.
+  @param to_x X position to which the unit vector points.
+  @param to_y Y position to which the unit vector points.
+  @return Cross product, or 0 if the points are the same.
   */
-  protected float crossProduct(PointF lhs, PointF rhs)
+  protected float crossRotationToTarget(float from_x, float from_y,
+                                        float to_x, float to_y)
   {
-    return lhs.x * rhs.y - lhs.y * rhs.x;
+    float delta_x = to_x - from_x, delta_y = to_y - from_y;
+    float to_magn = (float) Math.sqrt(delta_x * delta_x + delta_y * delta_y);
+    if (to_magn < Float.MIN_VALUE)
+      return 0.0f;
+    return (getRotationUnitX() * delta_y - getRotationUnitY() * delta_x) /
+           to_magn;
   }
 }
@@ -0,0 +1,228 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+Finds radial collisions between actors in a world. Once per frame, after all
+actors have moved, the actors in each cell of the spatial grid are tested only
+against the actors in nearby cells (broad phase), then by the distance between
+their centres (narrow phase). Each colliding pair is found once and published
+to the collisions of both actors, so the cost grows with the amount of nearby
+actors rather than the size of the world.
+*/
+class CollisionSystem
+{
+  private SpatialGrid grid;
+  private ArrayList<Actor> nearby = new ArrayList<Actor>();
+  private int pair_count = 0;
+
+  public CollisionSystem(SpatialGrid grid)
+  {
+    this.grid = grid;
+  }
+
+  /**
+  Replace the collisions of every actor in the grid with those at their current
+  positions.
+  */
+  public void update()
+  {
+    int cells_per_side = grid.getCellsPerSide();
+
+    for (int row = 0; row < cells_per_side; ++row)
+    {
+      for (int column = 0; column < cells_per_side; ++column)
+      {
+        ArrayList<Actor> actors = grid.getCell(row, column);
+        if (actors == null)
+          continue;
+        for (int i = 0; i < actors.size(); ++i)
+          actors.get(i).clearCollisions();
+      }
+    }
+
+    //Colliding actors are at most the two largest radii apart, so their cells
+    //are at most this many cells apart.
+    int reach = Math.max(1, (int) Math.ceil(grid.getMaxActorRadius() * 2.0f /
+                                            grid.getCellSize()));
+
+    //Each cell is tested against itself and the cells after it within reach
+    //(the rest of its row and the rows below), so that each pair of cells, and
+    //therefore each pair of actors, is tested once.
+    pair_count = 0;
+    for (int row = 0; row < cells_per_side; ++row)
+    {
+      for (int column = 0; column < cells_per_side; ++column)
+      {
+        ArrayList<Actor> actors = grid.getCell(row, column);
+        if (actors == null || actors.isEmpty())
+          continue;
+
+        testCellWithItself(actors);
+        for (int other_column = column + 1;
+             other_column <= column + reach && other_column < cells_per_side;
+             ++other_column)
+          testCells(actors, grid.getCell(row, other_column));
+        for (int other_row = row + 1;
+             other_row <= row + reach && other_row < cells_per_side;
+             ++other_row)
+        {
+          for (int other_column = Math.max(0, column - reach);
+               other_column <= column + reach &&
+               other_column < cells_per_side;
+               ++other_column)
+            testCells(actors, grid.getCell(other_row, other_column));
+        }
+      }
+    }
+  }
+
+  /**
+  Find the actors in the grid with which an actor which is not in the grid
+  currently collides.
+  @param actor Actor which is not in the grid.
+  @param result List to which colliding actors are added if not already in it.
+  */
+  public void detect(Actor actor, List<Actor> result)
+  {
+    nearby.clear();
+    grid.queryRadius(actor.getX(), actor.getY(),
+                     actor.getRadius() + grid.getMaxActorRadius(), null,
+                     nearby);
+    for (int i = 0; i < nearby.size(); ++i)
+    {
+      Actor other = nearby.get(i);
+      if (other != actor && collide(actor, other) && !result.contains(other))
+        result.add(other);
+    }
+    nearby.clear();
+  }
+
+  /**
+  Find the first actor in the grid hit by an actor moving in a straight line,
+  treating the moving actor as a circle swept along the line. Unlike testing
+  collisions after each of several small moves, this needs one query however
+  far the actor moves.
+  @param actor Moving actor, at the start of the line.
+  @param to_x X position of the end of the line.
+  @param to_y Y position of the end of the line.
+  @param type Only actors which are instances of this class are hit. All actors
+    if null.
+  @param exclude Actor which is never hit. May be null.
+  @return Actor hit first, or null if none.
+  */
+  public Actor sweep(Actor actor, float to_x, float to_y, Class<?> type,
+                     Actor exclude)
+  {
+    float from_x = actor.getX(), from_y = actor.getY();
+    float delta_x = to_x - from_x, delta_y = to_y - from_y;
+    float reach = actor.getRadius() + grid.getMaxActorRadius();
+
+    nearby.clear();
+    grid.queryRect(Math.min(from_x, to_x) - reach,
+                   Math.min(from_y, to_y) - reach,
+                   Math.max(from_x, to_x) + reach,
+                   Math.max(from_y, to_y) + reach, type, nearby);
+
+    Actor first = null;
+    float first_fraction = Float.MAX_VALUE;
+    for (int i = 0; i < nearby.size(); ++i)
+    {
+      Actor other = nearby.get(i);
+      if (other == actor || other == exclude)
+        continue;
+      float fraction = sweepFraction(from_x, from_y, delta_x, delta_y,
+                                     other.getX(), other.getY(),
+                                     actor.getRadius() + other.getRadius());
+      if (fraction < first_fraction)
+      {
+        first = other;
+        first_fraction = fraction;
+      }
+    }
+    nearby.clear();
+    return first;
+  }
+
+  /**
+  Get the amount of colliding pairs found by the most recent update.
+  @return Amount of pairs.
+  */
+  public int getPairCount()
+  {
+    return pair_count;
+  }
+
+  private void testCellWithItself(ArrayList<Actor> actors)
+  {
+    for (int i = 0; i < actors.size(); ++i)
+      for (int j = i + 1; j < actors.size(); ++j)
+        test(actors.get(i), actors.get(j));
+  }
+
+  private void testCells(ArrayList<Actor> actors, ArrayList<Actor> others)
+  {
+    if (others == null)
+      return;
+    for (int i = 0; i < actors.size(); ++i)
+      for (int j = 0; j < others.size(); ++j)
+        test(actors.get(i), others.get(j));
+  }
+
+  /**
+  Publish a collision between two actors to each if they collide.
+  */
+  private void test(Actor actor, Actor other)
+  {
+    if (!collide(actor, other))
+      return;
+    ++pair_count;
+    if (actor.isCollisionDetectionOn())
+      actor.addCollision(other);
+    if (other.isCollisionDetectionOn())
+      other.addCollision(actor);
+  }
+
+  /**
+  Find how far along a line a point first comes within a distance of a centre,
+  by solving |from + fraction * delta - centre| = distance for the smallest
+  fraction.
+  @return Fraction from 0 (start of the line) to 1 (end of the line), or
+    Float.MAX_VALUE if the line never comes within the distance.
+  */
+  private static float sweepFraction(float from_x, float from_y, float delta_x,
+                                     float delta_y, float centre_x,
+                                     float centre_y, float distance)
+  {
+    float offset_x = from_x - centre_x, offset_y = from_y - centre_y;
+    float c = offset_x * offset_x + offset_y * offset_y - distance * distance;
+    //Already within the distance at the start of the line.
+    if (c < 0.0f)
+      return 0.0f;
+    float a = delta_x * delta_x + delta_y * delta_y;
+    float b = 2.0f * (offset_x * delta_x + offset_y * delta_y);
+    float discriminant = b * b - 4.0f * a * c;
+    if (a == 0.0f || discriminant < 0.0f)
+      return Float.MAX_VALUE;
+    float fraction = (-b - (float) Math.sqrt(discriminant)) / (2.0f * a);
+    return fraction >= 0.0f && fraction <= 1.0f ? fraction : Float.MAX_VALUE;
+  }
+
+  /**
+  Are two actors closer than the sum of their radii?
+  */
+  private static boolean collide(Actor actor, Actor other)
+  {
+    float max_collide_distance = actor.getRadius() + other.getRadius();
+    return actor.distanceSquared(other) <
+           max_collide_distance * max_collide_distance;
+  }
+}
@@ -8,9 +8,11 @@ license. See the LICENSE file for details.
 package info.meoblast001.thugaim.engine;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
 
 /**
-Controls the game's runtime.
+Controls the game's runtime. The Engine thread runs the simulation and a
+separate render thread draws the frames it finishes.
 */
 public class Engine extends Thread
 {
@@ -46,14 +48,81 @@ public class Engine extends Thread
     SHUTDOWN,
   }
 
+  /**
+  Draws frames finished by the simulation as quickly as the surface allows, so
+  that waiting on the canvas never delays the simulation. When there is nothing
+  to draw, the thread parks until the simulation finishes a frame and unparks
+  it; frames themselves are still exchanged without locks.
+  */
+  private class RenderThread extends Thread
+  {
+    private volatile boolean running = true;
+
+    @Override
+    public void run()
+    {
+      while (running)
+      {
+        //Nothing to draw while paused. Once resumed, the next finished frame
+        //unparks the thread.
+        if (run_state == RunState.PAUSING || run_state == RunState.PAUSED)
+        {
+          LockSupport.park(this);
+          continue;
+        }
+
+        //If there is nothing new to draw, wait for the next finished frame. A
+        //frame finished since the check leaves the thread unparked, so it is
+        //never missed.
+        if (!graphics.drawLatestFrame())
+          LockSupport.park(this);
+      }
+    }
+
+    /**
+    Stop drawing and wait until the thread finishes.
+    */
+    public void finish()
+    {
+      running = false;
+      LockSupport.unpark(this);
+      while (isAlive())
+      {
+        try
+        {
+          join();
+        }
+        catch (InterruptedException e)
+        {
+          //Try again.
+        }
+      }
+    }
+  }
+
   private IGameRuntime runtime = null;
   private Audio audio = null;
-  private Graphics graphics = null;
+  private IRenderer graphics = null;
+  private SpriteCache sprite_cache = null;
+  private SpriteRotationCache sprite_rotation_cache =
+    new SpriteRotationCache();
+  private Profiler profiler = new Profiler();
+  //Threads on which actors think before updating.
+  private ThinkPool think_pool = new ThinkPool(1);
   private ShutdownHandlingActivity shutdown_handler = null;
   private float rotation = 0.0f;
   private boolean tapped = false;
 
-  private RunState run_state;
+  private volatile RunState run_state;
+  private RenderThread render_thread = null;
+
+  //If greater than zero, the runtime is updated in steps of exactly this many
+  //nanoseconds instead of the time elapsed since the previous frame.
+  private long fixed_step_nanoseconds = 0;
+  //Maximum amount of fixed steps performed before drawing a frame.
+  private int max_fixed_steps = 1;
+  //If true, actors look up the sine and cosine of their rotation in TrigTable.
+  private boolean trig_table_enabled = false;
 
   private CountDownLatch resume_countdown;
   private CountDownLatch shutdown_countdown;
@@ -67,9 +136,32 @@ public class Engine extends Thread
   */
   public Engine(Graphics graphics, Audio audio, IGameRuntime runtime,
                 ShutdownHandlingActivity shutdown_handler)
+  {
+    this(graphics,
+         new ResourceSpriteLoader(graphics.getContext().getResources()), audio,
+         runtime, shutdown_handler);
+  }
+
+  /**
+  Construct engine with any render backend but do not start. A headless engine
+  can be driven without threads by calling step() instead of start().
+  @param graphics Render backend to which the game will be drawn.
+  @param sprite_loader Loader used by the sprite cache.
+  @param audio Audio manager instance. May be null if the runtime plays no
+    audio.
+  @param runtime Instance of IGameRuntime which will be initialised and contains
+    game-specific code.
+  @param shutdown_handler Activity notified when the game ends. May be null if
+    the engine is never started.
+  */
+  public Engine(IRenderer graphics, ISpriteLoader sprite_loader, Audio audio,
+                IGameRuntime runtime, ShutdownHandlingActivity shutdown_handler)
   {
     super();
     this.graphics = graphics;
+    sprite_cache = new SpriteCache(sprite_loader);
+    graphics.setProfiler(profiler);
+    graphics.setSpriteRotationCache(sprite_rotation_cache);
     this.audio = audio;
     this.runtime = runtime;
     this.shutdown_handler = shutdown_handler;
@@ -84,8 +176,13 @@ public class Engine extends Thread
   public void run()
   {
     run_state = RunState.RUNNING;
+    render_thread = new RenderThread();
+    render_thread.start();
 
     long previous_milliseconds = System.currentTimeMillis();
+    long previous_nanoseconds = System.nanoTime();
+    //Time elapsed which has not yet been simulated in fixed steps.
+    long accumulated_nanoseconds = 0;
     //Game loop. Continue until the engine begins to shutdown.
     while (run_state != RunState.PERFORMING_SHUTDOWN)
     {
@@ -105,15 +202,47 @@ public class Engine extends Thread
         //If previous_milliseconds is not updated, the entire paused time period
         //will occur in one frame as if unpaused during that time.
         previous_milliseconds = System.currentTimeMillis();
+        previous_nanoseconds = System.nanoTime();
+        accumulated_nanoseconds = 0;
       }
 
+      profiler.beginFrame();
       long current_milliseconds = System.currentTimeMillis();
-      //Update runtime with difference between last frame and this frame as the
-      //delta.
-      runtime.update(current_milliseconds - previous_milliseconds, rotation,
-                     tapped);
-      //Draw frame.
-      graphics.finishDraw();
+      if (fixed_step_nanoseconds > 0)
+      {
+        long current_nanoseconds = System.nanoTime();
+        accumulated_nanoseconds += current_nanoseconds - previous_nanoseconds;
+        previous_nanoseconds = current_nanoseconds;
+
+        //Simulate as many fixed steps as have elapsed, up to the maximum. Only
+        //the last step is drawn. The render thread interpolates between the
+        //last two steps.
+        int steps = 0;
+        while (accumulated_nanoseconds >= fixed_step_nanoseconds &&
+               steps < max_fixed_steps)
+        {
+          if (steps > 0)
+            graphics.discardDraw();
+          updateRuntime(fixed_step_nanoseconds / 1000000);
+          accumulated_nanoseconds -= fixed_step_nanoseconds;
+          ++steps;
+        }
+        //If the simulation can't keep up, drop the time it couldn't simulate
+        //rather than falling further behind.
+        if (accumulated_nanoseconds >= fixed_step_nanoseconds)
+          accumulated_nanoseconds %= fixed_step_nanoseconds;
+
+        if (steps > 0)
+          finishFrame();
+      }
+      else
+      {
+        //Update runtime with difference between last frame and this frame as
+        //the delta.
+        updateRuntime(current_milliseconds - previous_milliseconds);
+        //Hand the frame to the render thread.
+        finishFrame();
+      }
 
       //Shutdown game if the game runtime is over.
       if (!runtime.isRunning())
@@ -130,22 +259,118 @@ public class Engine extends Thread
 
       previous_milliseconds = current_milliseconds;
 
-      try
+      //With fixed steps, sleep until the next step is due.
+      if (fixed_step_nanoseconds > 0)
       {
-        Thread.sleep(10);
-      }
-      catch (InterruptedException e)
-      {
-        //Can't do much.
+        sleepQuietly(Math.max(1, (fixed_step_nanoseconds -
+                                  accumulated_nanoseconds) / 1000000));
       }
+      else
+        sleepQuietly(10);
     }
 
+    render_thread.finish();
+    think_pool.shutdown();
     run_state = RunState.SHUTDOWN;
+    sprite_cache.clear();
+    sprite_rotation_cache.clear();
     if (shutdown_countdown != null)
       //Free other thread waiting at shutdown().
       shutdown_countdown.countDown();
   }
 
+  /**
+  Simulate and draw one frame on the calling thread. Used to drive an engine
+  which is not started, such as one with a headless render backend.
+  @param millisecond_delta Milliseconds simulated.
+  @return True if the runtime is still running, else false.
+  */
+  public boolean step(long millisecond_delta)
+  {
+    profiler.beginFrame();
+    updateRuntime(millisecond_delta);
+    finishFrame();
+    return runtime.isRunning();
+  }
+
+  /**
+  Update the runtime in fixed steps of simulated time instead of the time
+  elapsed since the previous frame. Several steps may be simulated before each
+  frame is drawn, and frames are drawn interpolated between the two most recent
+  steps. Should be called before the engine is started.
+  @param step_milliseconds Milliseconds simulated in each step.
+  @param max_steps Maximum amount of steps simulated before drawing a frame.
+    Time which would need more steps is dropped.
+  */
+  public void setFixedTimestep(long step_milliseconds, int max_steps)
+  {
+    fixed_step_nanoseconds = step_milliseconds * 1000000;
+    max_fixed_steps = Math.max(1, max_steps);
+    graphics.setStepDuration(fixed_step_nanoseconds);
+  }
+
+  /**
+  Update the runtime with the time elapsed since the previous frame (the
+  default).
+  */
+  public void disableFixedTimestep()
+  {
+    fixed_step_nanoseconds = 0;
+    graphics.setStepDuration(0);
+  }
+
+  /**
+  Set whether actors look up the sine and cosine of their rotation in a table
+  instead of computing them. Faster on devices without fast floating point
+  trigonometry, at the cost of slight imprecision. Each actor switches the next
+  time it rotates.
+  @param enabled True to use the table, false to compute (the default).
+  */
+  public void setTrigTableEnabled(boolean enabled)
+  {
+    trig_table_enabled = enabled;
+  }
+
+  /**
+  Do actors look up the sine and cosine of their rotation in a table?
+  @return True if yes, false if no.
+  */
+  public boolean isTrigTableEnabled()
+  {
+    return trig_table_enabled;
+  }
+
+  /**
+  Set the amount of threads on which actors think before each update. Results
+  are the same with any amount of threads. Should be called before the engine
+  is started or between steps.
+  @param thread_count Amount of threads, including the engine thread. 1 (the
+    default) thinks only on the engine thread.
+  */
+  public void setThinkThreadCount(int thread_count)
+  {
+    think_pool.shutdown();
+    think_pool = new ThinkPool(thread_count);
+  }
+
+  /**
+  Get the amount of threads on which actors think before each update.
+  @return Amount of threads, including the engine thread.
+  */
+  public int getThinkThreadCount()
+  {
+    return think_pool.getThreadCount();
+  }
+
+  /**
+  Get the pool on which actors think before each update.
+  @return ThinkPool reference.
+  */
+  ThinkPool getThinkPool()
+  {
+    return think_pool;
+  }
+
   /**
   Pause the game state.
   */
@@ -201,14 +426,42 @@ public class Engine extends Thread
   }
 
   /**
-  Get a reference to the Graphics instance this Engine is using.
-  @return Graphics reference.
+  Get a reference to the render backend this Engine is using.
+  @return Render backend reference.
   */
-  public Graphics getGraphics()
+  public IRenderer getGraphics()
   {
     return graphics;
   }
 
+  /**
+  Get a reference to the SpriteCache shared by all actors of this Engine.
+  @return SpriteCache reference.
+  */
+  public SpriteCache getSpriteCache()
+  {
+    return sprite_cache;
+  }
+
+  /**
+  Get a reference to the SpriteRotationCache from which this Engine's graphics
+  draw rotated sprites. Empty until sprites are pre-rendered.
+  @return SpriteRotationCache reference.
+  */
+  public SpriteRotationCache getSpriteRotationCache()
+  {
+    return sprite_rotation_cache;
+  }
+
+  /**
+  Get a reference to the Profiler measuring this Engine.
+  @return Profiler reference.
+  */
+  public Profiler getProfiler()
+  {
+    return profiler;
+  }
+
   /**
   Get a reference to the Audio manager instance this Engine is using.
   @return Audio manager reference.
@@ -218,6 +471,50 @@ public class Engine extends Thread
     return audio;
   }
 
+  /**
+  Update the runtime once, measuring the update.
+  @param millisecond_delta Milliseconds simulated.
+  */
+  private void updateRuntime(long millisecond_delta)
+  {
+    long started = profiler.begin();
+    runtime.update(millisecond_delta, rotation, tapped);
+    profiler.end(Profiler.PHASE_UPDATE, started);
+  }
+
+  /**
+  Draw the profiler overlay if enabled, then hand the frame to the render
+  thread.
+  */
+  private void finishFrame()
+  {
+    profiler.drawOverlay(graphics);
+    long started = profiler.begin();
+    graphics.finishDraw();
+    profiler.end(Profiler.PHASE_POST, started);
+    profiler.endFrame();
+    //Wake the render thread to draw the frame. Null if stepped instead of
+    //started.
+    if (render_thread != null)
+      LockSupport.unpark(render_thread);
+  }
+
+  /**
+  Sleeps the current thread, ignoring interruptions.
+  @param milliseconds Milliseconds to sleep.
+  */
+  private static void sleepQuietly(long milliseconds)
+  {
+    try
+    {
+      Thread.sleep(milliseconds);
+    }
+    catch (InterruptedException e)
+    {
+      //Can't do much.
+    }
+  }
+
   /**
   Calls await on a CountDownLatch. If fails, tries again until successful.
   @param latch CountDownLatch on which to await.
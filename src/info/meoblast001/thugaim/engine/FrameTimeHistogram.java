@@ -0,0 +1,134 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+/**
+Histogram of durations in microseconds with buckets whose width grows with the
+value, in the style of HdrHistogram. Values below 32 microseconds are exact and
+larger values are kept within about 6% of their true value, so that
+percentiles are accurate across a range from microseconds to seconds using a
+small fixed amount of memory. Recording allocates nothing.
+*/
+public class FrameTimeHistogram
+{
+  //Each power of two above the exact range is divided into this many buckets.
+  private static final int SUB_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 4;
+  //Largest shift of a value into the sub bucket range. Values up to about
+  //33 seconds fit.
+  private static final int MAX_SHIFT = 21;
+
+  private final int[] counts = new int[SUB_BUCKETS * (MAX_SHIFT + 2)];
+  private long count = 0;
+  private long total = 0;
+  private long max = 0;
+
+  /**
+  Record one duration.
+  @param microseconds Duration in microseconds. Negative values are recorded
+    as 0.
+  */
+  public void record(long microseconds)
+  {
+    if (microseconds < 0)
+      microseconds = 0;
+    ++counts[bucketOf(microseconds)];
+    ++count;
+    total += microseconds;
+    if (microseconds > max)
+      max = microseconds;
+  }
+
+  /**
+  Remove all recorded durations.
+  */
+  public void clear()
+  {
+    for (int i = 0; i < counts.length; ++i)
+      counts[i] = 0;
+    count = 0;
+    total = 0;
+    max = 0;
+  }
+
+  /**
+  Get the amount of recorded durations.
+  @return Amount of durations.
+  */
+  public long getCount()
+  {
+    return count;
+  }
+
+  /**
+  Get the mean of all recorded durations.
+  @return Mean in microseconds. 0 if nothing was recorded.
+  */
+  public long getMean()
+  {
+    return count == 0 ? 0 : total / count;
+  }
+
+  /**
+  Get the largest recorded duration.
+  @return Duration in microseconds.
+  */
+  public long getMax()
+  {
+    return max;
+  }
+
+  /**
+  Get the duration below or equal to which a percentage of recorded durations
+  fall.
+  @param percentile Percentage from 0 to 100.
+  @return Duration in microseconds, rounded up to the end of its bucket. 0 if
+    nothing was recorded.
+  */
+  public long getPercentile(double percentile)
+  {
+    if (count == 0)
+      return 0;
+    long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < counts.length; ++i)
+    {
+      seen += counts[i];
+      if (seen >= target)
+        return Math.min(max, bucketEnd(i));
+    }
+    return max;
+  }
+
+  /**
+  Get the index of the bucket containing a value. Values below twice the sub
+  bucket count have their own bucket. Larger values are shifted right until
+  they fall between SUB_BUCKETS and 2 * SUB_BUCKETS - 1.
+  */
+  private static int bucketOf(long value)
+  {
+    if (value < SUB_BUCKETS * 2)
+      return (int) value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    if (shift > MAX_SHIFT)
+      return SUB_BUCKETS * (MAX_SHIFT + 2) - 1;
+    return SUB_BUCKETS * (shift + 1) + (int) (value >> shift) - SUB_BUCKETS;
+  }
+
+  /**
+  Get the largest value which falls into a bucket.
+  */
+  private static long bucketEnd(int bucket)
+  {
+    if (bucket < SUB_BUCKETS * 2)
+      return bucket;
+    int shift = bucket / SUB_BUCKETS - 1;
+    long sub_bucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+    return ((sub_bucket + 1) << shift) - 1;
+  }
+}
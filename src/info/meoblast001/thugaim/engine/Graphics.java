@@ -11,76 +11,71 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Region;
 import android.util.AttributeSet;
 import android.view.SurfaceView;
 import android.view.SurfaceHolder;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 SurfaceView extension which handles graphics on the play screen.
 */
-public class Graphics extends SurfaceView implements SurfaceHolder.Callback
+public class Graphics extends SurfaceView
+  implements SurfaceHolder.Callback, IRenderer
 {
-  /**
-  Most graphics operations are NOT handled until #{@link #finishDraw()
-  finishDraw()} is called. Objects of this class represent one operation and are
-  queued for completion when finishDraw() is called.
-  */
-  private class BitmapRenderOperation
-  {
-    public Bitmap bitmap;
-    public int x, y;
-    public float angle;
-  }
-
-  public enum Shape
-  {
-    RECTANGLE,
-    OVAL
-  }
-
-  public enum PaintType
-  {
-    STROKE,
-    FILL
-  }
-
-  private class ShapeRenderOperation
-  {
-    public Shape shape;
-    public Paint colour;
-    public int x, y;
-    public int width, height;
-  }
-
-  private class TextRenderOperation
-  {
-    public String text;
-    public Paint fill_colour, stroke_colour;
-    public int x, y;
-  }
+  //Bits of the shared frame state holding the index of the ready frame.
+  private static final int READY_INDEX_MASK = 0x3;
+  //Bit of the shared frame state set if the ready frame has not yet been taken
+  //for drawing.
+  private static final int READY_FRESH = 0x4;
 
   private Context context = null;
-  private int focus_x = 0, focus_y = 0;
-  private RectF clip_area = null;
-  //Bitmaps.
-  private LinkedBlockingQueue<BitmapRenderOperation> bm_render_operations =
-    new LinkedBlockingQueue<BitmapRenderOperation>();
-  private LinkedBlockingQueue<BitmapRenderOperation> hud_bm_render_operations =
-    new LinkedBlockingQueue<BitmapRenderOperation>();
-  //Shapes.
-  private LinkedBlockingQueue<ShapeRenderOperation> shape_render_operations =
-    new LinkedBlockingQueue<ShapeRenderOperation>();
-  private LinkedBlockingQueue<ShapeRenderOperation>
-    hud_shape_render_operations =
-    new LinkedBlockingQueue<ShapeRenderOperation>();
-  //Texts.
-  private LinkedBlockingQueue<TextRenderOperation> hud_text_render_operations =
-    new LinkedBlockingQueue<TextRenderOperation>();
+  private volatile RectF clip_area = null;
+  //Most graphics operations are NOT handled until #{@link #finishDraw()
+  //finishDraw()} is called. Frames are triple buffered between the simulation
+  //thread and the render thread: the simulation builds the back frame, the
+  //render thread draws the front frame, and the ready frame is the most
+  //recently finished frame which has not yet been drawn. Frames are exchanged
+  //with the ready frame atomically, so neither thread ever waits for the other.
+  private final RenderFrame[] frames = {
+      new RenderFrame(), new RenderFrame(), new RenderFrame()
+    };
+  private int back_index = 0; //Only used by the simulation thread.
+  //Order of bitmaps in every frame. Only used by the simulation thread.
+  private final RenderCommandBuffer.BitmapRanks bitmap_ranks =
+    new RenderCommandBuffer.BitmapRanks();
+  private int front_index = 1; //Only used by the render thread.
+  private final AtomicInteger ready_state = new AtomicInteger(2);
+  //Statistics about the most recently drawn frame.
+  private volatile int frame_command_count = 0;
+  private volatile int frame_command_bytes = 0;
+  private volatile int frame_drawn_bitmap_count = 0;
+  private volatile int frame_culled_bitmap_count = 0;
+  //Amount of frames which have been built, whether drawn or discarded.
+  private int frame_number = 0;
+  //Duration of a simulation step if frames are interpolated, else 0.
+  private volatile long step_nanoseconds = 0;
+  //Reused when drawing ovals.
+  private RectF oval_bounds = new RectF();
+  //Reused when drawing rotated bitmaps.
+  private Matrix bitmap_matrix = new Matrix();
+  private Rect atlas_source = new Rect(), atlas_destination = new Rect();
+  private volatile SpriteRotationCache sprite_rotation_cache = null;
+  private final StaticLayer static_layer = new StaticLayer();
+  //Static layer being built. Only used by the simulation thread.
+  private RenderCommandBuffer static_building = null;
+  private final HudLayer[] hud_layers = new HudLayer[MAX_HUD_LAYERS];
+  //Retained HUD layer being built, which receives screen space operations
+  //instead of the back frame. Only used by the simulation thread.
+  private RenderCommandBuffer hud_building = null;
+  private int hud_building_layer, hud_building_left, hud_building_top;
+  private int hud_building_width, hud_building_height;
+  private Profiler profiler = null;
 
   public Graphics(Context context, AttributeSet attr)
   {
@@ -89,6 +84,9 @@ public class Graphics extends SurfaceView implements SurfaceHolder.Callback
 
     SurfaceHolder holder = getHolder();
     holder.addCallback(this);
+
+    for (int i = 0; i < hud_layers.length; ++i)
+      hud_layers[i] = new HudLayer();
   }
 
   public void surfaceChanged(SurfaceHolder holder, int format, int width,
@@ -113,7 +111,25 @@ public class Graphics extends SurfaceView implements SurfaceHolder.Callback
   */
   public void draw(Bitmap bitmap, int x, int y, float angle)
   {
-    draw(bitmap, x, y, angle, false);
+    draw(bitmap, x, y, angle, x, y, angle, false);
+  }
+
+  /**
+  Draw a rotated bitmap to the canvas in world space, interpolating between its
+  state at the previous simulation step and its current state if enabled by
+  #{@link #setStepDuration(long) setStepDuration()}.
+  @param bitmap The bitmap to be drawn.
+  @param previous_x The X position at the previous simulation step.
+  @param previous_y The Y position at the previous simulation step.
+  @param previous_angle The angle at the previous simulation step.
+  @param x The X position in the world at which to draw the bitmap's centre.
+  @param y The Y position in the world at which to draw the bitmap's centre.
+  @param angle Radians of rotation (0.0f for no rotation).
+  */
+  public void draw(Bitmap bitmap, int previous_x, int previous_y,
+                   float previous_angle, int x, int y, float angle)
+  {
+    draw(bitmap, previous_x, previous_y, previous_angle, x, y, angle, false);
   }
 
   /**
@@ -122,23 +138,70 @@ public class Graphics extends SurfaceView implements SurfaceHolder.Callback
   */
   public void drawHud(Bitmap bitmap, int x, int y, float angle)
   {
-    draw(bitmap, x, y, angle, true);
+    draw(bitmap, x, y, angle, x, y, angle, true);
   }
 
   /**
-  Generalised backend method for draw and drawHud.
+  Generalised backend method for draw and drawHud. World space bitmaps which
+  cannot be visible are not added.
   */
-  private void draw(Bitmap bitmap, int x, int y, float angle, boolean to_hud)
+  private void draw(Bitmap bitmap, int previous_x, int previous_y,
+                    float previous_angle, int x, int y, float angle,
+                    boolean to_hud)
   {
-    BitmapRenderOperation operation = new BitmapRenderOperation();
-    operation.bitmap = bitmap;
-    operation.x = x;
-    operation.y = y;
-    operation.angle = angle;
+    RenderFrame back_frame = frames[back_index];
+    if (!to_hud && !back_frame.isInView(bitmap, previous_x, previous_y, x, y,
+                                        getWidth(), getHeight()))
+    {
+      ++back_frame.culled_bitmap_count;
+      return;
+    }
+
     if (to_hud)
-      hud_bm_render_operations.add(operation);
+    {
+      hudCommands().addBitmap(bitmap, previous_x, previous_y, previous_angle,
+                              x, y, angle);
+    }
     else
-      bm_render_operations.add(operation);
+    {
+      back_frame.world.addBitmap(bitmap, previous_x, previous_y,
+                                 previous_angle, x, y, angle);
+    }
+  }
+
+  /**
+  Begin replacing the static layer: world space bitmaps which never move. They
+  are rendered into tiles once, which are drawn beneath all other world space
+  operations in every frame. Bitmaps drawn with drawStatic() until
+  finishStaticLayer() is called replace all previous static bitmaps. Only
+  called from the simulation thread.
+  */
+  public void beginStaticLayer()
+  {
+    static_building = new RenderCommandBuffer();
+  }
+
+  /**
+  Draw a rotated bitmap in the static layer. Parameters same as
+  #{@link #draw(bitmap, x, y, angle) draw()}.
+  */
+  public void drawStatic(Bitmap bitmap, int x, int y, float angle)
+  {
+    if (static_building == null)
+    {
+      throw new IllegalStateException(
+        "Static bitmaps must be drawn after beginStaticLayer().");
+    }
+    static_building.addBitmap(bitmap, x, y, angle, x, y, angle);
+  }
+
+  /**
+  Finish replacing the static layer, which is drawn from the next frame on.
+  */
+  public void finishStaticLayer()
+  {
+    static_layer.setCommands(static_building);
+    static_building = null;
   }
 
   /**
@@ -176,27 +239,17 @@ public class Graphics extends SurfaceView implements SurfaceHolder.Callback
   private void drawShape(Shape shape, PaintType paint_type, int x, int y,
                          int width, int height, Paint colour, boolean to_hud)
   {
-    switch (paint_type)
-    {
-      case STROKE:
-        colour.setStyle(Paint.Style.STROKE);
-        break;
-      case FILL:
-        colour.setStyle(Paint.Style.FILL);
-        break;
-    }
+    //Paints already configured, such as those kept by HUD layers, are not
+    //changed.
+    Paint.Style style =
+      paint_type == PaintType.STROKE ? Paint.Style.STROKE : Paint.Style.FILL;
+    if (colour.getStyle() != style)
+      colour.setStyle(style);
 
-    ShapeRenderOperation operation = new ShapeRenderOperation();
-    operation.shape = Shape.RECTANGLE;
-    operation.colour = colour;
-    operation.x = x;
-    operation.y = y;
-    operation.width = width;
-    operation.height = height;
     if (to_hud)
-      hud_shape_render_operations.add(operation);
+      hudCommands().addShape(shape, colour, x, y, width, height);
     else
-      shape_render_operations.add(operation);
+      frames[back_index].world.addShape(shape, colour, x, y, width, height);
   }
 
   /**
@@ -214,24 +267,88 @@ public class Graphics extends SurfaceView implements SurfaceHolder.Callback
                           Paint.Align align, Paint fill_colour,
                           Paint stroke_colour)
   {
+    //Paints already configured, such as those kept by HUD layers, are not
+    //changed.
     if (stroke_colour != null)
     {
-      stroke_colour.setStyle(Paint.Style.STROKE);
-      stroke_colour.setStrokeWidth(1);
-      stroke_colour.setTextSize(text_size);
-      stroke_colour.setTextAlign(align);
+      if (stroke_colour.getStyle() != Paint.Style.STROKE)
+        stroke_colour.setStyle(Paint.Style.STROKE);
+      if (stroke_colour.getStrokeWidth() != 1)
+        stroke_colour.setStrokeWidth(1);
+      configureTextPaint(stroke_colour, text_size, align);
     }
+    configureTextPaint(fill_colour, text_size, align);
+
+    hudCommands().addText(text, fill_colour, stroke_colour, x, y);
+  }
 
-    fill_colour.setTextSize(text_size);
-    fill_colour.setTextAlign(align);
+  private static void configureTextPaint(Paint paint, float text_size,
+                                         Paint.Align align)
+  {
+    if (paint.getTextSize() != text_size)
+      paint.setTextSize(text_size);
+    if (paint.getTextAlign() != align)
+      paint.setTextAlign(align);
+  }
 
-    TextRenderOperation operation = new TextRenderOperation();
-    operation.text = text;
-    operation.fill_colour = fill_colour;
-    operation.stroke_colour = stroke_colour;
-    operation.x = x;
-    operation.y = y;
-    hud_text_render_operations.add(operation);
+  /**
+  Begin replacing a retained HUD layer: screen space operations which are drawn
+  once into an offscreen bitmap, then drawn from it in every frame beneath the
+  other screen space operations. Until finishHudLayer() is called, screen space
+  operations are added to the layer instead of the back frame. Paints passed to
+  them are kept by the layer and must not be changed afterward. Only called
+  from the simulation thread.
+  @param layer Index of the layer, from 0 to MAX_HUD_LAYERS - 1.
+  @param left X position on the screen of the left edge of the layer.
+  @param top Y position on the screen of the top edge of the layer.
+  @param width Width of the layer. Operations outside of it are cut off.
+  @param height Height of the layer. Operations outside of it are cut off.
+  */
+  public void beginHudLayer(int layer, int left, int top, int width,
+                            int height)
+  {
+    if (layer < 0 || layer >= MAX_HUD_LAYERS || width <= 0 || height <= 0)
+    {
+      throw new IllegalArgumentException(
+        "HUD layers need a valid index and a positive size.");
+    }
+    hud_building = new RenderCommandBuffer();
+    hud_building_layer = layer;
+    hud_building_left = left;
+    hud_building_top = top;
+    hud_building_width = width;
+    hud_building_height = height;
+  }
+
+  /**
+  Finish replacing the retained HUD layer begun by beginHudLayer(). It is drawn
+  from the next frame on.
+  */
+  public void finishHudLayer()
+  {
+    hud_building.groupBitmaps(bitmap_ranks);
+    hud_layers[hud_building_layer].setContent(new HudLayer.Content(
+      hud_building, hud_building_left, hud_building_top, hud_building_width,
+      hud_building_height));
+    hud_building = null;
+  }
+
+  /**
+  Remove all operations from a retained HUD layer.
+  @param layer Index of the layer, from 0 to MAX_HUD_LAYERS - 1.
+  */
+  public void clearHudLayer(int layer)
+  {
+    hud_layers[layer].setContent(null);
+  }
+
+  /**
+  Get the buffer receiving screen space operations: the HUD layer being built
+  if any, else the back frame.
+  */
+  private RenderCommandBuffer hudCommands()
+  {
+    return hud_building != null ? hud_building : frames[back_index].hud;
   }
 
   /**
@@ -242,8 +359,8 @@ public class Graphics extends SurfaceView implements SurfaceHolder.Callback
   */
   public void focusOn(int x, int y)
   {
-    focus_x = x;
-    focus_y = y;
+    frames[back_index].focus_x = x;
+    frames[back_index].focus_y = y;
   }
 
   public void enableClip(float left, float top, float right, float bottom)
@@ -257,16 +374,173 @@ public class Graphics extends SurfaceView implements SurfaceHolder.Callback
   }
 
   /**
-  Called by the engine to commit all graphical operations for the current frame.
+  Get the amount of render commands in the most recently drawn frame.
+  @return Amount of commands.
+  */
+  public int getFrameCommandCount()
+  {
+    return frame_command_count;
+  }
+
+  /**
+  Get the approximate amount of bytes used by render commands in the most
+  recently drawn frame.
+  @return Amount of bytes.
+  */
+  public int getFrameCommandBytes()
+  {
+    return frame_command_bytes;
+  }
+
+  /**
+  Get the amount of world space bitmaps in the most recently drawn frame.
+  @return Amount of bitmaps.
+  */
+  public int getFrameDrawnBitmapCount()
+  {
+    return frame_drawn_bitmap_count;
+  }
+
+  /**
+  Get the amount of world space bitmaps not added to the most recently drawn
+  frame because they were out of view.
+  @return Amount of bitmaps.
+  */
+  public int getFrameCulledBitmapCount()
+  {
+    return frame_culled_bitmap_count;
+  }
+
+  /**
+  Get the number of the frame currently being built. Increases by one each time
+  a frame is finished or discarded. Only called from the simulation thread.
+  @return Frame number.
+  */
+  public int getFrameNumber()
+  {
+    return frame_number;
+  }
+
+  /**
+  Set the duration of a simulation step. If greater than zero, world space
+  bitmaps and the focus are drawn interpolated between their previous and
+  current states according to how much time has elapsed since the frame was
+  finished.
+  @param nanoseconds Duration of a step, or 0 to never interpolate.
+  */
+  public void setStepDuration(long nanoseconds)
+  {
+    step_nanoseconds = nanoseconds;
+  }
+
+  /**
+  Called by the engine to throw away all graphical operations for the current
+  frame without drawing them, such as when several simulation steps occur
+  before the next draw. Positions of discarded operations are still used as
+  previous positions of the next frame. Only called from the simulation thread.
+  */
+  public void discardDraw()
+  {
+    frames[back_index].clear();
+    ++frame_number;
+  }
+
+  /**
+  Called by the engine to commit all graphical operations for the current
+  frame. The frame is drawn by the next call to
+  #{@link #drawLatestFrame() drawLatestFrame()}. Only called from the
+  simulation thread.
   */
   public void finishDraw()
+  {
+    RenderFrame finished = frames[back_index];
+    finished.finished_nanoseconds = System.nanoTime();
+    finished.world.groupBitmaps(bitmap_ranks);
+    finished.hud.groupBitmaps(bitmap_ranks);
+
+    //The finished frame becomes the ready frame. The previous ready frame,
+    //which is either drawn already or now skipped, is reused to build the next
+    //frame.
+    back_index = ready_state.getAndSet(back_index | READY_FRESH) &
+                 READY_INDEX_MASK;
+
+    RenderFrame next = frames[back_index];
+    next.focus_x = finished.focus_x;
+    next.focus_y = finished.focus_y;
+    next.clear();
+    ++frame_number;
+  }
+
+  public void setProfiler(Profiler profiler)
+  {
+    this.profiler = profiler;
+  }
+
+  /**
+  Set the cache from which pre-rendered frames of rotated bitmaps are drawn.
+  Rotated bitmaps not in the cache are rotated while drawing.
+  @param cache Cache, or null to always rotate while drawing.
+  */
+  public void setSpriteRotationCache(SpriteRotationCache cache)
+  {
+    sprite_rotation_cache = cache;
+  }
+
+  /**
+  Called by the render thread to draw the most recently finished frame. If no
+  frame was finished since the previous call, the previous frame is drawn again
+  only if frames are interpolated, because otherwise nothing would change.
+  @return True if a frame was drawn, false if not.
+  */
+  public boolean drawLatestFrame()
+  {
+    long step = step_nanoseconds;
+    boolean fresh = (ready_state.get() & READY_FRESH) != 0;
+    if (fresh)
+      front_index = ready_state.getAndSet(front_index) & READY_INDEX_MASK;
+    else if (step <= 0)
+      return false;
+
+    RenderFrame frame = frames[front_index];
+    if (fresh)
+    {
+      frame_command_count = frame.getCommandCount();
+      frame_command_bytes = frame.getCommandBytes();
+      frame_drawn_bitmap_count = frame.world.bitmap_count;
+      frame_culled_bitmap_count = frame.culled_bitmap_count;
+    }
+
+    //Interpolate according to how much of the following step has elapsed.
+    float alpha = 1.0f;
+    if (step > 0)
+    {
+      alpha = (float) (System.nanoTime() - frame.finished_nanoseconds) /
+              (float) step;
+      alpha = Math.max(0.0f, Math.min(1.0f, alpha));
+    }
+
+    if (profiler != null)
+      profiler.beginRender();
+    drawFrame(frame, alpha);
+    if (profiler != null)
+      profiler.endRender();
+    return true;
+  }
+
+  private void drawFrame(RenderFrame frame, float alpha)
   {
     SurfaceHolder holder = getHolder();
 
     //Don't draw if the surface isn't valid.
     if (!holder.getSurface().isValid())
       return;
+    long started = profiler != null ? profiler.begin() : 0;
     Canvas canvas = holder.lockCanvas();
+    if (profiler != null)
+    {
+      profiler.end(Profiler.PHASE_CANVAS_LOCK, started);
+      started = profiler.begin();
+    }
 
     //Background is black.
     canvas.drawColor(Color.BLACK);
@@ -274,79 +548,153 @@ public class Graphics extends SurfaceView implements SurfaceHolder.Callback
     //Operations in world space.
     canvas.save();
     //Focus the centre of the screen to the coordinates set by focusOn().
-    canvas.translate((float) (-focus_x + canvas.getWidth() / 2),
-                     (float) (-focus_y + canvas.getHeight() / 2));
+    float focus_x = frame.previous_focus_x +
+                    (frame.focus_x - frame.previous_focus_x) * alpha;
+    float focus_y = frame.previous_focus_y +
+                    (frame.focus_y - frame.previous_focus_y) * alpha;
+    canvas.translate(-Math.round(focus_x) + canvas.getWidth() / 2,
+                     -Math.round(focus_y) + canvas.getHeight() / 2);
 
     //Clip if enabled.
+    RectF clip_area = this.clip_area;
     if (clip_area != null)
       canvas.clipRect(clip_area, Region.Op.REPLACE);
 
+    //Static bitmaps are beneath everything else in world space.
+    int view_left = Math.round(focus_x) - canvas.getWidth() / 2;
+    int view_top = Math.round(focus_y) - canvas.getHeight() / 2;
+    static_layer.draw(canvas, view_left, view_top,
+                      view_left + canvas.getWidth(),
+                      view_top + canvas.getHeight());
+
     canvas.save();
-    //Perform each BitmapRenderOperation.
-    while (bm_render_operations.size() > 0)
-      doBitmapRenderOperation(canvas, bm_render_operations.poll());
-    //Perform each ShapeRenderOperation.
-    while (shape_render_operations.size() > 0)
-      doShapeRenderOperation(canvas, shape_render_operations.poll());
+    doRenderCommands(canvas, frame.world, alpha);
     canvas.restore();
 
     //Leave world space. Draw in screen space.
     canvas.restore();
-    //Perform each HUD BitmapRenderOperation.
-    while (hud_bm_render_operations.size() > 0)
-      doBitmapRenderOperation(canvas, hud_bm_render_operations.poll());
-    //Perform each HUD ShapeRenderOperation.
-    while (hud_shape_render_operations.size() > 0)
-      doShapeRenderOperation(canvas, hud_shape_render_operations.poll());
-    //Perform each HUD TextRenderOperation.
-    while (hud_text_render_operations.size() > 0)
-      doTextRenderOperation(canvas, hud_text_render_operations.poll());
+    for (HudLayer layer : hud_layers)
+      drawHudLayer(canvas, layer);
+    doRenderCommands(canvas, frame.hud, 1.0f);
 
+    if (profiler != null)
+    {
+      profiler.end(Profiler.PHASE_DRAW, started);
+      started = profiler.begin();
+    }
     holder.unlockCanvasAndPost(canvas);
+    if (profiler != null)
+      profiler.end(Profiler.PHASE_PRESENT, started);
   }
 
-  private void doBitmapRenderOperation(Canvas canvas,
-                                       BitmapRenderOperation operation)
+  /**
+  Draw a retained HUD layer from its bitmap, redrawing the bitmap first if the
+  layer was replaced since.
+  */
+  private void drawHudLayer(Canvas canvas, HudLayer layer)
+  {
+    HudLayer.Content content = layer.getContent();
+    if (content == null)
+      return;
+    Bitmap bitmap = layer.getBitmap(content);
+    if (bitmap == null)
+    {
+      doRenderCommands(layer.beginRedraw(content), content.commands, 1.0f);
+      layer.finishRedraw();
+      bitmap = layer.getBitmap(content);
+    }
+    canvas.drawBitmap(bitmap, content.left, content.top, null);
+  }
+
+  /**
+  Perform all commands in a buffer: first bitmaps grouped by bitmap, then
+  shapes, then texts. Bitmaps are interpolated by alpha between their previous
+  and current state.
+  */
+  private void doRenderCommands(Canvas canvas, RenderCommandBuffer commands,
+                                float alpha)
+  {
+    for (int order = 0; order < commands.bitmap_count; ++order)
+    {
+      int i = commands.bitmap_order[order];
+      int previous_x = commands.bitmap_previous_x[i];
+      int previous_y = commands.bitmap_previous_y[i];
+      float previous_angle = commands.bitmap_previous_angle[i];
+      doBitmapRenderOperation(canvas, commands.bitmaps[i],
+        previous_x + Math.round((commands.bitmap_x[i] - previous_x) * alpha),
+        previous_y + Math.round((commands.bitmap_y[i] - previous_y) * alpha),
+        previous_angle + (commands.bitmap_angle[i] - previous_angle) * alpha);
+    }
+    for (int i = 0; i < commands.shape_count; ++i)
+    {
+      doShapeRenderOperation(canvas, commands.shapes[i],
+        commands.shape_colour[i], commands.shape_x[i], commands.shape_y[i],
+        commands.shape_width[i], commands.shape_height[i]);
+    }
+    for (int i = 0; i < commands.text_count; ++i)
+    {
+      doTextRenderOperation(canvas, commands.texts[i], commands.text_x[i],
+        commands.text_y[i], commands.text_fill_colour[i],
+        commands.text_stroke_colour[i]);
+    }
+  }
+
+  private void doBitmapRenderOperation(Canvas canvas, Bitmap bitmap, int x,
+                                       int y, float angle)
   {
-    canvas.save();
-    canvas.translate((float) operation.x, (float) operation.y);
-    canvas.rotate((float) (operation.angle * (180.0f / Math.PI)));
     //Subtract half of the width and height from the draw position so that the
     //centre of the bitmap (instead of the top-left) is drawn at the specified
     //position.
-    canvas.drawBitmap(operation.bitmap,
-                      (int) (-operation.bitmap.getWidth() / 2),
-                      (int) (-operation.bitmap.getHeight() / 2), null);
-    canvas.restore();
+    int half_width = bitmap.getWidth() / 2;
+    int half_height = bitmap.getHeight() / 2;
+    //Unrotated bitmaps need no matrix.
+    if (angle == 0.0f)
+    {
+      canvas.drawBitmap(bitmap, x - half_width, y - half_height, null);
+      return;
+    }
+    //Pre-rendered bitmaps are copied from the frame nearest to the angle.
+    SpriteRotationCache cache = sprite_rotation_cache;
+    SpriteRotationCache.Rotations rotations =
+      cache != null ? cache.get(bitmap) : null;
+    if (rotations != null)
+    {
+      rotations.getFrameBounds(angle, atlas_source);
+      int left = x - rotations.cell_size / 2, top = y - rotations.cell_size / 2;
+      atlas_destination.set(left, top, left + rotations.cell_size,
+                            top + rotations.cell_size);
+      canvas.drawBitmap(rotations.atlas, atlas_source, atlas_destination, null);
+      return;
+    }
+    //Other rotated bitmaps are drawn with their own matrix, which the canvas
+    //combines with its current matrix, so the canvas state need not be saved
+    //and restored.
+    bitmap_matrix.setTranslate(-half_width, -half_height);
+    bitmap_matrix.postRotate((float) (angle * (180.0f / Math.PI)));
+    bitmap_matrix.postTranslate(x, y);
+    canvas.drawBitmap(bitmap, bitmap_matrix, null);
   }
 
-  private void doShapeRenderOperation(Canvas canvas,
-                                      ShapeRenderOperation operation)
+  private void doShapeRenderOperation(Canvas canvas, Shape shape, Paint colour,
+                                      int x, int y, int width, int height)
   {
-    switch (operation.shape)
+    switch (shape)
     {
       case RECTANGLE:
-        canvas.drawRect(operation.x, operation.y,
-          operation.x + operation.width, operation.y + operation.height,
-          operation.colour);
+        canvas.drawRect(x, y, x + width, y + height, colour);
         break;
       case OVAL:
-        canvas.drawOval(new RectF(operation.x, operation.y,
-          operation.x + operation.width, operation.y + operation.height),
-          operation.colour);
+        oval_bounds.set(x, y, x + width, y + height);
+        canvas.drawOval(oval_bounds, colour);
         break;
     }
   }
 
-  private void doTextRenderOperation(Canvas canvas,
-                                     TextRenderOperation operation)
+  private void doTextRenderOperation(Canvas canvas, String text, int x, int y,
+                                     Paint fill_colour, Paint stroke_colour)
   {
-    canvas.drawText(operation.text, operation.x, operation.y,
-                    operation.fill_colour);
-    if (operation.stroke_colour != null)
-    {
-      canvas.drawText(operation.text, operation.x, operation.y,
-                      operation.stroke_colour);
-    }
+    canvas.drawText(text, x, y, fill_colour);
+    if (stroke_colour != null)
+      canvas.drawText(text, x, y, stroke_colour);
   }
 }
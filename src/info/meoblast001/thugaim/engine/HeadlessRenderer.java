@@ -0,0 +1,292 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+
+/**
+Render backend which draws nothing. Draw calls are recorded into the same
+command buffers used by {@link Graphics Graphics} so that they can be counted,
+then thrown away when each frame is finished. Allows the game to be simulated
+without a screen, such as in benchmarks and tests.
+*/
+public class HeadlessRenderer implements IRenderer
+{
+  private Context context;
+  private int width, height;
+  private RenderFrame frame = new RenderFrame();
+  private RenderCommandBuffer.BitmapRanks bitmap_ranks =
+    new RenderCommandBuffer.BitmapRanks();
+  private int frame_number = 0;
+  private int frame_command_count = 0;
+  private int frame_command_bytes = 0;
+  private int frame_drawn_bitmap_count = 0;
+  private int frame_culled_bitmap_count = 0;
+  private long total_command_count = 0;
+  private RenderCommandBuffer static_layer = new RenderCommandBuffer();
+  private RenderCommandBuffer static_building = null;
+  private RenderCommandBuffer[] hud_layers =
+    new RenderCommandBuffer[MAX_HUD_LAYERS];
+  private RenderCommandBuffer hud_building = null;
+  private int hud_building_layer;
+
+  /**
+  @param context Context from which resources are loaded. May be null.
+  @param width Width of the simulated screen.
+  @param height Height of the simulated screen.
+  */
+  public HeadlessRenderer(Context context, int width, int height)
+  {
+    this.context = context;
+    this.width = width;
+    this.height = height;
+  }
+
+  public Context getContext()
+  {
+    return context;
+  }
+
+  public int getWidth()
+  {
+    return width;
+  }
+
+  public int getHeight()
+  {
+    return height;
+  }
+
+  public void draw(Bitmap bitmap, int x, int y, float angle)
+  {
+    draw(bitmap, x, y, angle, x, y, angle);
+  }
+
+  /**
+  Bitmaps out of view are culled as Graphics does. Sprites are not decoded
+  headlessly, so null bitmaps are culled as if they were larger than any
+  sprite.
+  */
+  public void draw(Bitmap bitmap, int previous_x, int previous_y,
+                   float previous_angle, int x, int y, float angle)
+  {
+    if (!frame.isInView(bitmap, previous_x, previous_y, x, y, width, height))
+    {
+      ++frame.culled_bitmap_count;
+      return;
+    }
+    frame.world.addBitmap(bitmap, previous_x, previous_y, previous_angle, x, y,
+                          angle);
+  }
+
+  public void drawHud(Bitmap bitmap, int x, int y, float angle)
+  {
+    hudCommands().addBitmap(bitmap, x, y, angle, x, y, angle);
+  }
+
+  public void beginStaticLayer()
+  {
+    static_building = new RenderCommandBuffer();
+  }
+
+  public void drawStatic(Bitmap bitmap, int x, int y, float angle)
+  {
+    if (static_building == null)
+    {
+      throw new IllegalStateException(
+        "Static bitmaps must be drawn after beginStaticLayer().");
+    }
+    static_building.addBitmap(bitmap, x, y, angle, x, y, angle);
+  }
+
+  public void finishStaticLayer()
+  {
+    static_layer = static_building;
+    static_building = null;
+  }
+
+  public void drawShape(Shape shape, PaintType paint_type, int x, int y,
+                        int width, int height, Paint colour)
+  {
+    frame.world.addShape(shape, colour, x, y, width, height);
+  }
+
+  public void drawShapeHud(Shape shape, PaintType paint_type, int x, int y,
+                           int width, int height, Paint colour)
+  {
+    hudCommands().addShape(shape, colour, x, y, width, height);
+  }
+
+  public void drawTextHud(String text, int x, int y, float text_size,
+                          Paint.Align align, Paint fill_colour,
+                          Paint stroke_colour)
+  {
+    hudCommands().addText(text, fill_colour, stroke_colour, x, y);
+  }
+
+  public void beginHudLayer(int layer, int left, int top, int width,
+                            int height)
+  {
+    if (layer < 0 || layer >= MAX_HUD_LAYERS || width <= 0 || height <= 0)
+    {
+      throw new IllegalArgumentException(
+        "HUD layers need a valid index and a positive size.");
+    }
+    hud_building = new RenderCommandBuffer();
+    hud_building_layer = layer;
+  }
+
+  public void finishHudLayer()
+  {
+    hud_layers[hud_building_layer] = hud_building;
+    hud_building = null;
+  }
+
+  public void clearHudLayer(int layer)
+  {
+    hud_layers[layer] = null;
+  }
+
+  /**
+  Get the amount of commands in all retained HUD layers.
+  @return Amount of commands.
+  */
+  public int getHudLayerCommandCount()
+  {
+    int count = 0;
+    for (RenderCommandBuffer layer : hud_layers)
+      if (layer != null)
+        count += layer.getCommandCount();
+    return count;
+  }
+
+  private RenderCommandBuffer hudCommands()
+  {
+    return hud_building != null ? hud_building : frame.hud;
+  }
+
+  public void focusOn(int x, int y)
+  {
+    frame.focus_x = x;
+    frame.focus_y = y;
+  }
+
+  public void enableClip(float left, float top, float right, float bottom)
+  {
+  }
+
+  public void disableClip()
+  {
+  }
+
+  public int getFrameNumber()
+  {
+    return frame_number;
+  }
+
+  public void setStepDuration(long nanoseconds)
+  {
+  }
+
+  /**
+  Nothing is drawn, so there is nothing to measure.
+  */
+  public void setProfiler(Profiler profiler)
+  {
+  }
+
+  /**
+  Nothing is drawn, so pre-rendered frames are never used.
+  */
+  public void setSpriteRotationCache(SpriteRotationCache cache)
+  {
+  }
+
+  public void discardDraw()
+  {
+    frame.clear();
+    ++frame_number;
+  }
+
+  public void finishDraw()
+  {
+    //Grouped as Graphics does, so that the cost of grouping is measured.
+    frame.world.groupBitmaps(bitmap_ranks);
+    frame.hud.groupBitmaps(bitmap_ranks);
+    frame_command_count = frame.getCommandCount();
+    frame_command_bytes = frame.getCommandBytes();
+    frame_drawn_bitmap_count = frame.world.bitmap_count;
+    frame_culled_bitmap_count = frame.culled_bitmap_count;
+    total_command_count += frame_command_count;
+    frame.clear();
+    ++frame_number;
+  }
+
+  public boolean drawLatestFrame()
+  {
+    return false;
+  }
+
+  public int getFrameCommandCount()
+  {
+    return frame_command_count;
+  }
+
+  public int getFrameCommandBytes()
+  {
+    return frame_command_bytes;
+  }
+
+  public int getFrameDrawnBitmapCount()
+  {
+    return frame_drawn_bitmap_count;
+  }
+
+  public int getFrameCulledBitmapCount()
+  {
+    return frame_culled_bitmap_count;
+  }
+
+  /**
+  Get the amount of bitmaps in the static layer.
+  @return Amount of bitmaps.
+  */
+  public int getStaticBitmapCount()
+  {
+    return static_layer.bitmap_count;
+  }
+
+  /**
+  Get the amount of render commands in all finished frames.
+  @return Amount of commands.
+  */
+  public long getTotalCommandCount()
+  {
+    return total_command_count;
+  }
+
+  /**
+  Get the world X position of the focus of the current frame.
+  @return X position.
+  */
+  public int getFocusX()
+  {
+    return frame.focus_x;
+  }
+
+  /**
+  Get the world Y position of the focus of the current frame.
+  @return Y position.
+  */
+  public int getFocusY()
+  {
+    return frame.focus_y;
+  }
+}
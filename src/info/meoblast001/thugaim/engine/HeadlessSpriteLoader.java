@@ -0,0 +1,50 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import java.util.HashMap;
+
+/**
+Loads sprites without bitmaps for use with a
+{@link HeadlessRenderer HeadlessRenderer}. Only the size of each sprite is
+known, which is all that is needed for simulation.
+*/
+public class HeadlessSpriteLoader implements ISpriteLoader
+{
+  private HashMap<Integer, int[]> sizes = new HashMap<Integer, int[]>();
+  private int default_width, default_height;
+
+  /**
+  @param default_width Width of sprites whose size was not set.
+  @param default_height Height of sprites whose size was not set.
+  */
+  public HeadlessSpriteLoader(int default_width, int default_height)
+  {
+    this.default_width = default_width;
+    this.default_height = default_height;
+  }
+
+  /**
+  Set the size of the sprite loaded for a resource.
+  @param resource_id Drawable resource ID.
+  @param width Width in pixels.
+  @param height Height in pixels.
+  */
+  public void setSize(int resource_id, int width, int height)
+  {
+    sizes.put(resource_id, new int[] { width, height });
+  }
+
+  public Sprite load(int resource_id)
+  {
+    int[] size = sizes.get(resource_id);
+    if (size == null)
+      return new Sprite(resource_id, null, default_width, default_height);
+    return new Sprite(resource_id, null, size[0], size[1]);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+/**
+Screen space commands retained between frames and drawn from an offscreen
+bitmap, which is only redrawn when the commands are replaced. Each layer covers
+one rectangle of the screen.
+
+The commands are set on the simulation thread, and the bitmap is redrawn and
+drawn on the render thread.
+*/
+class HudLayer
+{
+  /**
+  Commands of a layer and the area of the screen they cover. Never modified.
+  */
+  static class Content
+  {
+    public final RenderCommandBuffer commands;
+    public final int left, top, width, height;
+
+    public Content(RenderCommandBuffer commands, int left, int top, int width,
+                   int height)
+    {
+      this.commands = commands;
+      this.left = left;
+      this.top = top;
+      this.width = width;
+      this.height = height;
+    }
+  }
+
+  //Replaced whenever the commands change. Null if the layer is empty.
+  private volatile Content content = null;
+
+  //Only used by the render thread.
+  private Content drawn_content = null;
+  private Bitmap bitmap = null;
+  private final Canvas canvas = new Canvas();
+
+  /**
+  Replace the commands of the layer. Only called from the simulation thread.
+  @param content Commands and area, or null to empty the layer.
+  */
+  public void setContent(Content content)
+  {
+    this.content = content;
+  }
+
+  /**
+  Get the commands of the layer.
+  @return Commands and area, or null if the layer is empty.
+  */
+  public Content getContent()
+  {
+    return content;
+  }
+
+  /**
+  Get the bitmap holding the current commands. Only called from the render
+  thread.
+  @param content Current commands, from getContent().
+  @return Bitmap, or null if it must be redrawn with beginRedraw().
+  */
+  public Bitmap getBitmap(Content content)
+  {
+    return content == drawn_content ? bitmap : null;
+  }
+
+  /**
+  Begin redrawing the bitmap with new commands, which the caller performs on
+  the returned canvas before calling finishRedraw(). Only called from the
+  render thread.
+  @param content Commands to be drawn, from getContent().
+  @return Canvas drawing to the cleared bitmap in screen space.
+  */
+  public Canvas beginRedraw(Content content)
+  {
+    if (bitmap == null || bitmap.getWidth() != content.width ||
+        bitmap.getHeight() != content.height)
+    {
+      if (bitmap != null)
+        bitmap.recycle();
+      bitmap = Bitmap.createBitmap(content.width, content.height,
+                                   Bitmap.Config.ARGB_8888);
+      canvas.setBitmap(bitmap);
+    }
+    bitmap.eraseColor(Color.TRANSPARENT);
+    canvas.save();
+    canvas.translate(-content.left, -content.top);
+    drawn_content = content;
+    return canvas;
+  }
+
+  /**
+  Finish redrawing the bitmap. Only called from the render thread.
+  */
+  public void finishRedraw()
+  {
+    canvas.restore();
+  }
+}
@@ -0,0 +1,254 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+
+/**
+Render backend used by the engine and game code. Implemented by
+{@link Graphics Graphics}, which draws to the screen, and by
+{@link HeadlessRenderer HeadlessRenderer}, which only records draw calls.
+*/
+public interface IRenderer
+{
+  /**
+  Amount of retained HUD layers.
+  */
+  public static final int MAX_HUD_LAYERS = 4;
+
+  public enum Shape
+  {
+    RECTANGLE,
+    OVAL
+  }
+
+  public enum PaintType
+  {
+    STROKE,
+    FILL
+  }
+
+  /**
+  Get the context from which resources are loaded. May be null if the backend
+  has no context.
+  @return Context or null.
+  */
+  public Context getContext();
+
+  /**
+  Get the width of the screen.
+  @return Width in pixels.
+  */
+  public int getWidth();
+
+  /**
+  Get the height of the screen.
+  @return Height in pixels.
+  */
+  public int getHeight();
+
+  /**
+  Draw a rotated bitmap in world space. Bitmaps out of view of the screen are
+  skipped.
+  @param bitmap The bitmap to be drawn.
+  @param x The X position in the world at which to draw the bitmap's centre.
+  @param y The Y position in the world at which to draw the bitmap's centre.
+  @param angle Radians of rotation (0.0f for no rotation).
+  */
+  public void draw(Bitmap bitmap, int x, int y, float angle);
+
+  /**
+  Draw a rotated bitmap in world space, interpolating between its state at the
+  previous simulation step and its current state.
+  @param bitmap The bitmap to be drawn.
+  @param previous_x The X position at the previous simulation step.
+  @param previous_y The Y position at the previous simulation step.
+  @param previous_angle The angle at the previous simulation step.
+  @param x The X position in the world at which to draw the bitmap's centre.
+  @param y The Y position in the world at which to draw the bitmap's centre.
+  @param angle Radians of rotation (0.0f for no rotation).
+  */
+  public void draw(Bitmap bitmap, int previous_x, int previous_y,
+                   float previous_angle, int x, int y, float angle);
+
+  /**
+  Draw a rotated bitmap in screen space. Parameters same as
+  #{@link #draw(Bitmap, int, int, float) draw()}.
+  */
+  public void drawHud(Bitmap bitmap, int x, int y, float angle);
+
+  /**
+  Begin replacing the static layer: world space bitmaps which never move. The
+  static layer is drawn beneath all other world space operations in every frame
+  without being drawn again. Bitmaps drawn with drawStatic() until
+  finishStaticLayer() is called replace all previous static bitmaps.
+  */
+  public void beginStaticLayer();
+
+  /**
+  Draw a rotated bitmap in the static layer. Parameters same as
+  #{@link #draw(Bitmap, int, int, float) draw()}.
+  */
+  public void drawStatic(Bitmap bitmap, int x, int y, float angle);
+
+  /**
+  Finish replacing the static layer, which is drawn from the next frame on.
+  */
+  public void finishStaticLayer();
+
+  /**
+  Draw a shape in world space.
+  @param shape The type of shape to draw.
+  @param paint_type How to paint the shape.
+  @param x The X position in the world of the top-left corner of the shape.
+  @param y The Y position in the world of the top-left corner of the shape.
+  @param width The width of the shape at its widest point.
+  @param height The height of the shape at its highest point.
+  @param colour The colour with which to draw the shape.
+  */
+  public void drawShape(Shape shape, PaintType paint_type, int x, int y,
+                        int width, int height, Paint colour);
+
+  /**
+  Draw a shape in screen space. Parameters same as
+  #{@link #drawShape(Shape, PaintType, int, int, int, int, Paint)
+  drawShape()}.
+  */
+  public void drawShapeHud(Shape shape, PaintType paint_type, int x, int y,
+                           int width, int height, Paint colour);
+
+  /**
+  Draw text in screen space.
+  @param text Text to draw.
+  @param x The X position on the screen at which to draw the base of the text.
+  @param y The Y position on the screen at which to draw the base of the text.
+  @param text_size Text size to use with Paints.
+  @param align Alignment of the base to the text.
+  @param fill_colour Colour with which to fill the text.
+  @param stroke_colour Colour with which to outline the text. If null, no
+    outline.
+  */
+  public void drawTextHud(String text, int x, int y, float text_size,
+                          Paint.Align align, Paint fill_colour,
+                          Paint stroke_colour);
+
+  /**
+  Begin replacing a retained HUD layer: screen space operations which are drawn
+  once into an offscreen bitmap, then drawn from it in every frame beneath the
+  other screen space operations. Until finishHudLayer() is called, screen space
+  operations are added to the layer instead of the current frame. Paints passed
+  to them are kept by the layer and must not be changed afterward.
+  @param layer Index of the layer, from 0 to MAX_HUD_LAYERS - 1.
+  @param left X position on the screen of the left edge of the layer.
+  @param top Y position on the screen of the top edge of the layer.
+  @param width Width of the layer. Operations outside of it are cut off.
+  @param height Height of the layer. Operations outside of it are cut off.
+  */
+  public void beginHudLayer(int layer, int left, int top, int width,
+                            int height);
+
+  /**
+  Finish replacing the retained HUD layer begun by beginHudLayer(). It is drawn
+  from the next frame on.
+  */
+  public void finishHudLayer();
+
+  /**
+  Remove all operations from a retained HUD layer.
+  @param layer Index of the layer, from 0 to MAX_HUD_LAYERS - 1.
+  */
+  public void clearHudLayer(int layer);
+
+  /**
+  Specify the world X and Y coordinates at which to focus the centre of the
+  screen.
+  @param x World X coordinate at which to focus.
+  @param y World Y coordinate at which to focus.
+  */
+  public void focusOn(int x, int y);
+
+  /**
+  Only draw world space operations inside of a rectangle in world space.
+  */
+  public void enableClip(float left, float top, float right, float bottom);
+
+  /**
+  Draw world space operations anywhere.
+  */
+  public void disableClip();
+
+  /**
+  Get the number of the frame currently being built. Increases by one each time
+  a frame is finished or discarded.
+  @return Frame number.
+  */
+  public int getFrameNumber();
+
+  /**
+  Set the duration of a simulation step, used to interpolate drawing between
+  steps.
+  @param nanoseconds Duration of a step, or 0 to never interpolate.
+  */
+  public void setStepDuration(long nanoseconds);
+
+  /**
+  Set the profiler which measures drawing.
+  @param profiler Profiler.
+  */
+  public void setProfiler(Profiler profiler);
+
+  /**
+  Set the cache from which pre-rendered frames of rotated bitmaps are drawn.
+  @param cache Cache, or null to always rotate bitmaps while drawing.
+  */
+  public void setSpriteRotationCache(SpriteRotationCache cache);
+
+  /**
+  Throw away all operations for the current frame without drawing them.
+  */
+  public void discardDraw();
+
+  /**
+  Commit all operations for the current frame.
+  */
+  public void finishDraw();
+
+  /**
+  Draw the most recently finished frame. Called by the engine's render thread.
+  @return True if a frame was drawn, false if there was nothing new to draw.
+  */
+  public boolean drawLatestFrame();
+
+  /**
+  Get the amount of render commands in the most recently committed frame.
+  @return Amount of commands.
+  */
+  public int getFrameCommandCount();
+
+  /**
+  Get the approximate amount of bytes used by render commands in the most
+  recently committed frame.
+  @return Amount of bytes.
+  */
+  public int getFrameCommandBytes();
+
+  /**
+  Get the amount of world space bitmaps in the most recently committed frame.
+  @return Amount of bitmaps.
+  */
+  public int getFrameDrawnBitmapCount();
+
+  /**
+  Get the amount of world space bitmaps not added to the most recently
+  committed frame because they were out of view of the screen.
+  @return Amount of bitmaps.
+  */
+  public int getFrameCulledBitmapCount();
+}
@@ -0,0 +1,21 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+/**
+Produces sprites for a {@link SpriteCache SpriteCache} from resource IDs.
+*/
+public interface ISpriteLoader
+{
+  /**
+  Load a sprite.
+  @param resource_id Drawable resource ID.
+  @return New sprite.
+  */
+  public Sprite load(int resource_id);
+}
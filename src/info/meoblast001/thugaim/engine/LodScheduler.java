@@ -0,0 +1,191 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import java.util.HashMap;
+
+/**
+Decides how often each actor in a world is updated based on its distance from
+the actor the world focuses on. Distances are divided into tiers, each with an
+interval: the amount of frames between updates of actors in that tier. Actors
+updated less than every frame are updated with the milliseconds of all frames
+since their previous update. Actors beyond the last tier are frozen: they are
+not updated and the time passed while frozen is never simulated.
+
+Distances are measured in screens: multiples of the larger of the width and
+height of the screen. Tiers can be set for each class of actors; an actor uses
+the tiers of its most specific class with tiers set, else the default tiers.
+The default tiers update actors within 1 screen every frame and all other
+actors every 20 frames.
+*/
+public class LodScheduler
+{
+  /**
+  Maximum amount of tiers of any class of actors.
+  */
+  public static final int MAX_TIERS = 8;
+
+  /**
+  Tiers of one class of actors.
+  */
+  static class Tiers
+  {
+    public final float[] distances_squared;
+    public final int[] intervals;
+
+    public Tiers(float[] distances, int[] intervals)
+    {
+      if (distances.length != intervals.length || distances.length == 0 ||
+          distances.length > MAX_TIERS)
+      {
+        throw new IllegalArgumentException(
+          "Tiers need matching distances and intervals.");
+      }
+      distances_squared = new float[distances.length];
+      for (int i = 0; i < distances.length; ++i)
+      {
+        if (intervals[i] < 1 || (i > 0 && distances[i] < distances[i - 1]))
+        {
+          throw new IllegalArgumentException(
+            "Tier intervals must be positive and distances ascending.");
+        }
+        distances_squared[i] = distances[i] * distances[i];
+      }
+      this.intervals = intervals.clone();
+    }
+  }
+
+  private Tiers default_tiers = new Tiers(
+    new float[] { 1.0f, Float.POSITIVE_INFINITY }, new int[] { 1, 20 });
+  private HashMap<Class<?>, Tiers> class_tiers =
+    new HashMap<Class<?>, Tiers>();
+  //Incremented whenever tiers are set, so that actors find their tiers again.
+  private int tiers_version = 0;
+
+  //Amount of actors in each tier and frozen during the most recent frame.
+  private final int[] tier_actor_counts = new int[MAX_TIERS];
+  private int frozen_actor_count = 0;
+
+  /**
+  Set the tiers of actors with no tiers set for their class.
+  @param distances Maximum distance in screens of each tier, ascending. Actors
+    further than the last distance are frozen; use Float.POSITIVE_INFINITY to
+    never freeze.
+  @param intervals Frames between updates in each tier. 1 updates every frame.
+  */
+  public void setDefaultTiers(float[] distances, int[] intervals)
+  {
+    default_tiers = new Tiers(distances, intervals);
+    ++tiers_version;
+  }
+
+  /**
+  Set the tiers of a class of actors and its subclasses. Parameters match those
+  of {@link #setDefaultTiers(float[], int[]) setDefaultTiers()}.
+  @param type Class of actors.
+  */
+  public void setTiers(Class<? extends Actor> type, float[] distances,
+                       int[] intervals)
+  {
+    class_tiers.put(type, new Tiers(distances, intervals));
+    ++tiers_version;
+  }
+
+  /**
+  Get the amount of actors which were in a tier during the most recent frame.
+  Tiers of different classes with the same index are counted together.
+  @param tier Index of the tier, from 0 (nearest) to MAX_TIERS - 1.
+  @return Amount of actors.
+  */
+  public int getTierActorCount(int tier)
+  {
+    return tier_actor_counts[tier];
+  }
+
+  /**
+  Get the amount of actors which were frozen during the most recent frame.
+  @return Amount of actors.
+  */
+  public int getFrozenActorCount()
+  {
+    return frozen_actor_count;
+  }
+
+  /**
+  Reset the amount of actors in each tier before scheduling a frame.
+  */
+  void beginFrame()
+  {
+    for (int i = 0; i < MAX_TIERS; ++i)
+      tier_actor_counts[i] = 0;
+    frozen_actor_count = 0;
+  }
+
+  /**
+  Decide whether an actor is updated this frame.
+  @param actor Actor to schedule.
+  @param distance_squared Squared distance of the actor from the focus in
+    screens.
+  @param millisecond_delta Milliseconds elapsed since the previous frame.
+  @return Milliseconds with which to update the actor, or -1 if it is not
+    updated this frame.
+  */
+  long schedule(Actor actor, float distance_squared, long millisecond_delta)
+  {
+    if (actor.lod_tiers == null || actor.lod_tiers_version != tiers_version)
+    {
+      actor.lod_tiers = findTiers(actor.getClass());
+      actor.lod_tiers_version = tiers_version;
+    }
+    Tiers tiers = actor.lod_tiers;
+
+    int tier = 0;
+    while (tier < tiers.distances_squared.length &&
+           distance_squared > tiers.distances_squared[tier])
+      ++tier;
+    if (tier == tiers.distances_squared.length)
+    {
+      ++frozen_actor_count;
+      actor.lod_milliseconds = 0;
+      actor.lod_countdown = 0;
+      return -1;
+    }
+    ++tier_actor_counts[tier];
+
+    int interval = tiers.intervals[tier];
+    //Spread the updates of actors entering a tier across its interval so that
+    //they are not all updated in the same frame. An actor moving to a nearer
+    //tier waits no longer than the new interval.
+    if (actor.lod_countdown <= 0)
+      actor.lod_countdown = 1 + (actor.handle & Integer.MAX_VALUE) % interval;
+    else if (actor.lod_countdown > interval)
+      actor.lod_countdown = interval;
+
+    actor.lod_milliseconds += millisecond_delta;
+    if (--actor.lod_countdown > 0)
+      return -1;
+    actor.lod_countdown = interval;
+    long update_milliseconds = actor.lod_milliseconds;
+    actor.lod_milliseconds = 0;
+    return update_milliseconds;
+  }
+
+  /**
+  Find the tiers of the most specific class with tiers set.
+  */
+  private Tiers findTiers(Class<?> type)
+  {
+    for (Class<?> cur = type; cur != null; cur = cur.getSuperclass())
+    {
+      Tiers tiers = class_tiers.get(cur);
+      if (tiers != null)
+        return tiers;
+    }
+    return default_tiers;
+  }
+}
@@ -0,0 +1,323 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+
+/**
+Measures where frame time goes. Time is accumulated in named phases, each
+measured as:
+
+  long start = profiler.begin();
+  ...
+  profiler.end(phase, start);
+
+Frame durations are recorded in histograms from which percentiles are
+reported. While disabled, begin() returns immediately and end() does nothing,
+so instrumentation can be left in place.
+
+Phases are measured on either the simulation thread or the render thread, but
+each phase only on one of them. Render thread phases are read by the simulation
+thread without synchronisation, so their reported values are approximate.
+*/
+public class Profiler
+{
+  private static final String LOG_TAG = "Thugaim";
+  //Capacity for phases so that phase arrays never need to grow while the render
+  //thread writes to them.
+  private static final int MAX_PHASES = 64;
+  //Amount of frames after which the averages of each phase are reported.
+  private static final int REPORT_FRAMES = 60;
+  private static final int OVERLAY_TEXT_SIZE = 18;
+
+  //Phases measured by the engine.
+  public static final int PHASE_UPDATE = 0;
+  public static final int PHASE_POST = 1;
+  public static final int PHASE_CANVAS_LOCK = 2;
+  public static final int PHASE_DRAW = 3;
+  public static final int PHASE_PRESENT = 4;
+  public static final int PHASE_COLLISIONS = 5;
+  public static final int PHASE_THINK = 6;
+
+  private volatile boolean enabled = false;
+  //Value of enabled read at the beginning of the current simulation frame.
+  private boolean recording = false;
+
+  private final String[] phase_names = new String[MAX_PHASES];
+  private final long[] phase_nanoseconds = new long[MAX_PHASES];
+  private volatile int phase_count = 0;
+  private final HashMap<Class<?>, Integer> class_phases =
+    new HashMap<Class<?>, Integer>();
+
+  //Time between the end of one simulation frame and the next.
+  private final FrameTimeHistogram frame_interval = new FrameTimeHistogram();
+  //Time spent simulating each frame.
+  private final FrameTimeHistogram simulation = new FrameTimeHistogram();
+  //Time spent drawing each frame on the render thread.
+  private final FrameTimeHistogram render = new FrameTimeHistogram();
+
+  private long frame_started_nanoseconds = 0;
+  private long previous_frame_ended_nanoseconds = 0;
+  private long render_started_nanoseconds = 0;
+  private int frames_since_report = 0;
+  private volatile String[] report = new String[0];
+
+  private final Paint overlay_fill = new Paint();
+  private final Paint overlay_stroke = new Paint();
+
+  public Profiler()
+  {
+    addPhase("update");
+    addPhase("post");
+    addPhase("canvas lock");
+    addPhase("draw");
+    addPhase("present");
+    addPhase("collisions");
+    addPhase("think");
+
+    overlay_fill.setColor(Color.YELLOW);
+    overlay_stroke.setColor(Color.BLACK);
+  }
+
+  /**
+  Is the profiler measuring?
+  @return True if yes, false if no.
+  */
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+  Start or stop measuring. Takes effect at the beginning of the next frame.
+  Starting discards all previous measurements.
+  @param enabled True to start, false to stop.
+  */
+  public void setEnabled(boolean enabled)
+  {
+    this.enabled = enabled;
+  }
+
+  /**
+  Add a phase. Should be called during initialisation.
+  @param name Name displayed in reports.
+  @return Phase ID passed to end().
+  */
+  public synchronized int addPhase(String name)
+  {
+    if (phase_count == MAX_PHASES)
+      throw new IllegalStateException("Too many profiler phases.");
+    phase_names[phase_count] = name;
+    return phase_count++;
+  }
+
+  /**
+  Get the phase measuring updates of one class of actors, adding it if needed.
+  Only called from the simulation thread.
+  @param type Class of the actors.
+  @return Phase ID passed to end().
+  */
+  public int getClassPhase(Class<?> type)
+  {
+    Integer phase = class_phases.get(type);
+    if (phase == null)
+    {
+      phase = addPhase("update " + type.getSimpleName());
+      class_phases.put(type, phase);
+    }
+    return phase;
+  }
+
+  /**
+  Is the profiler measuring the current frame? Only meaningful on the
+  simulation thread.
+  @return True if yes, false if no.
+  */
+  public boolean isRecording()
+  {
+    return recording;
+  }
+
+  /**
+  Begin measuring a phase.
+  @return Value passed to end(). 0 if not measuring.
+  */
+  public long begin()
+  {
+    return recording ? System.nanoTime() : 0;
+  }
+
+  /**
+  Finish measuring a phase.
+  @param phase Phase ID.
+  @param started Value returned by begin() when the phase began.
+  */
+  public void end(int phase, long started)
+  {
+    if (started != 0)
+      phase_nanoseconds[phase] += System.nanoTime() - started;
+  }
+
+  /**
+  Called by the engine at the beginning of each simulation frame.
+  */
+  public void beginFrame()
+  {
+    boolean was_recording = recording;
+    recording = enabled;
+    if (!recording)
+      return;
+    if (!was_recording)
+      reset();
+    frame_started_nanoseconds = System.nanoTime();
+  }
+
+  /**
+  Called by the engine at the end of each simulation frame, after the frame was
+  handed to the render thread.
+  */
+  public void endFrame()
+  {
+    if (!recording)
+      return;
+    long now = System.nanoTime();
+    simulation.record((now - frame_started_nanoseconds) / 1000);
+    if (previous_frame_ended_nanoseconds != 0)
+      frame_interval.record((now - previous_frame_ended_nanoseconds) / 1000);
+    previous_frame_ended_nanoseconds = now;
+
+    if (++frames_since_report == REPORT_FRAMES)
+    {
+      report = buildReport(frames_since_report);
+      frames_since_report = 0;
+      for (int i = 0; i < phase_count; ++i)
+        phase_nanoseconds[i] = 0;
+    }
+  }
+
+  /**
+  Called by the render thread before drawing a frame.
+  */
+  public void beginRender()
+  {
+    render_started_nanoseconds = recording ? System.nanoTime() : 0;
+  }
+
+  /**
+  Called by the render thread after drawing a frame.
+  */
+  public void endRender()
+  {
+    if (render_started_nanoseconds != 0)
+      render.record((System.nanoTime() - render_started_nanoseconds) / 1000);
+  }
+
+  /**
+  Draw the most recent report at the top-right of the screen. Does nothing if
+  not measuring.
+  @param graphics Graphics to which the report is drawn.
+  */
+  public void drawOverlay(IRenderer graphics)
+  {
+    if (!recording)
+      return;
+    String[] report = this.report;
+    int x = graphics.getWidth() - 10;
+    for (int i = 0; i < report.length; ++i)
+    {
+      graphics.drawTextHud(report[i], x, (i + 1) * (OVERLAY_TEXT_SIZE + 2),
+                           OVERLAY_TEXT_SIZE, Paint.Align.RIGHT, overlay_fill,
+                           overlay_stroke);
+    }
+  }
+
+  /**
+  Write the most recent report.
+  @param writer Writer to which the report is written.
+  */
+  public void dump(PrintWriter writer)
+  {
+    for (String line : report)
+      writer.println(line);
+  }
+
+  /**
+  Write the most recent report to logcat.
+  */
+  public void dumpToLog()
+  {
+    for (String line : report)
+      Log.i(LOG_TAG, line);
+  }
+
+  /**
+  Append the most recent report to a file.
+  @param file File to which the report is appended.
+  @throws IOException If the file cannot be written.
+  */
+  public void dumpToFile(File file) throws IOException
+  {
+    PrintWriter writer = new PrintWriter(new FileWriter(file, true));
+    try
+    {
+      dump(writer);
+    }
+    finally
+    {
+      writer.close();
+    }
+  }
+
+  private void reset()
+  {
+    for (int i = 0; i < phase_count; ++i)
+      phase_nanoseconds[i] = 0;
+    frame_interval.clear();
+    simulation.clear();
+    render.clear();
+    previous_frame_ended_nanoseconds = 0;
+    frames_since_report = 0;
+  }
+
+  /**
+  Build the lines of a report: percentiles of each histogram since measuring
+  began, followed by the average milliseconds per frame spent in each phase
+  since the previous report.
+  */
+  private String[] buildReport(int frames)
+  {
+    String[] lines = new String[3 + phase_count];
+    lines[0] = formatHistogram("frame", frame_interval);
+    lines[1] = formatHistogram("sim", simulation);
+    lines[2] = formatHistogram("render", render);
+    for (int i = 0; i < phase_count; ++i)
+    {
+      lines[3 + i] = String.format("%s %.2fms", phase_names[i],
+        phase_nanoseconds[i] / 1000000.0 / frames);
+    }
+    return lines;
+  }
+
+  private static String formatHistogram(String name,
+                                        FrameTimeHistogram histogram)
+  {
+    return String.format("%s p50 %.1f p95 %.1f p99 %.1f max %.1f ms", name,
+                         histogram.getPercentile(50) / 1000.0,
+                         histogram.getPercentile(95) / 1000.0,
+                         histogram.getPercentile(99) / 1000.0,
+                         histogram.getMax() / 1000.0);
+  }
+}
@@ -0,0 +1,297 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+
+import java.util.IdentityHashMap;
+
+/**
+Growable list of render commands stored as parallel arrays (one array per
+command field) instead of one object per command. Once the arrays have grown to
+the size needed by a typical frame, adding commands allocates nothing.
+Bitmap, shape and text commands are stored separately and are each performed in
+the order in which they were added.
+*/
+class RenderCommandBuffer
+{
+  /**
+  Rank of each bitmap, given in the order in which bitmaps are first grouped
+  and never changed, so that groupBitmaps() orders groups the same way in every
+  frame. One is kept by each renderer and only used on the simulation thread.
+  */
+  static class BitmapRanks
+  {
+    private IdentityHashMap<Bitmap, Integer> ranks =
+      new IdentityHashMap<Bitmap, Integer>();
+
+    /**
+    Get the rank of a bitmap, giving it the next rank if it has none.
+    @param bitmap Bitmap, which may be null.
+    @return Rank.
+    */
+    public int get(Bitmap bitmap)
+    {
+      Integer rank = ranks.get(bitmap);
+      if (rank == null)
+      {
+        rank = ranks.size();
+        ranks.put(bitmap, rank);
+      }
+      return rank;
+    }
+  }
+
+  private static final int INITIAL_CAPACITY = 64;
+  //Approximate bytes used by each command in the parallel arrays, assuming
+  //4 byte references.
+  public static final int BITMAP_COMMAND_BYTES = 28;
+  public static final int SHAPE_COMMAND_BYTES = 28;
+  public static final int TEXT_COMMAND_BYTES = 20;
+
+  //Bitmaps.
+  public Bitmap[] bitmaps = new Bitmap[INITIAL_CAPACITY];
+  public int[] bitmap_x = new int[INITIAL_CAPACITY];
+  public int[] bitmap_y = new int[INITIAL_CAPACITY];
+  public float[] bitmap_angle = new float[INITIAL_CAPACITY];
+  //Position and angle at the previous simulation step, used for interpolation.
+  public int[] bitmap_previous_x = new int[INITIAL_CAPACITY];
+  public int[] bitmap_previous_y = new int[INITIAL_CAPACITY];
+  public float[] bitmap_previous_angle = new float[INITIAL_CAPACITY];
+  public int bitmap_count = 0;
+  //Indices of the bitmap commands in the order in which to perform them, set by
+  //groupBitmaps().
+  public int[] bitmap_order = new int[INITIAL_CAPACITY];
+  //Scratch space for groupBitmaps(): the group of each command, the distinct
+  //bitmaps with the amount of commands drawing each, and the groups sorted by
+  //the ranks of their bitmaps.
+  private int[] bitmap_group = new int[INITIAL_CAPACITY];
+  private Bitmap[] group_bitmaps = new Bitmap[8];
+  private int[] group_sizes = new int[8];
+  private int[] sorted_groups = new int[8];
+  private int[] sorted_ranks = new int[8];
+
+  //Shapes.
+  public IRenderer.Shape[] shapes = new IRenderer.Shape[INITIAL_CAPACITY];
+  public Paint[] shape_colour = new Paint[INITIAL_CAPACITY];
+  public int[] shape_x = new int[INITIAL_CAPACITY];
+  public int[] shape_y = new int[INITIAL_CAPACITY];
+  public int[] shape_width = new int[INITIAL_CAPACITY];
+  public int[] shape_height = new int[INITIAL_CAPACITY];
+  public int shape_count = 0;
+
+  //Texts.
+  public String[] texts = new String[INITIAL_CAPACITY];
+  public Paint[] text_fill_colour = new Paint[INITIAL_CAPACITY];
+  public Paint[] text_stroke_colour = new Paint[INITIAL_CAPACITY];
+  public int[] text_x = new int[INITIAL_CAPACITY];
+  public int[] text_y = new int[INITIAL_CAPACITY];
+  public int text_count = 0;
+
+  public void addBitmap(Bitmap bitmap, int previous_x, int previous_y,
+                        float previous_angle, int x, int y, float angle)
+  {
+    if (bitmap_count == bitmaps.length)
+    {
+      int capacity = bitmaps.length * 2;
+      bitmaps = grow(bitmaps, new Bitmap[capacity]);
+      bitmap_x = grow(bitmap_x, capacity);
+      bitmap_y = grow(bitmap_y, capacity);
+      bitmap_angle = grow(bitmap_angle, capacity);
+      bitmap_previous_x = grow(bitmap_previous_x, capacity);
+      bitmap_previous_y = grow(bitmap_previous_y, capacity);
+      bitmap_previous_angle = grow(bitmap_previous_angle, capacity);
+      bitmap_order = grow(bitmap_order, capacity);
+      bitmap_group = grow(bitmap_group, capacity);
+    }
+
+    bitmaps[bitmap_count] = bitmap;
+    bitmap_x[bitmap_count] = x;
+    bitmap_y[bitmap_count] = y;
+    bitmap_angle[bitmap_count] = angle;
+    bitmap_previous_x[bitmap_count] = previous_x;
+    bitmap_previous_y[bitmap_count] = previous_y;
+    bitmap_previous_angle[bitmap_count] = previous_angle;
+    ++bitmap_count;
+  }
+
+  public void addShape(IRenderer.Shape shape, Paint colour, int x, int y,
+                       int width, int height)
+  {
+    if (shape_count == shapes.length)
+    {
+      int capacity = shapes.length * 2;
+      shapes = grow(shapes, new IRenderer.Shape[capacity]);
+      shape_colour = grow(shape_colour, new Paint[capacity]);
+      shape_x = grow(shape_x, capacity);
+      shape_y = grow(shape_y, capacity);
+      shape_width = grow(shape_width, capacity);
+      shape_height = grow(shape_height, capacity);
+    }
+
+    shapes[shape_count] = shape;
+    shape_colour[shape_count] = colour;
+    shape_x[shape_count] = x;
+    shape_y[shape_count] = y;
+    shape_width[shape_count] = width;
+    shape_height[shape_count] = height;
+    ++shape_count;
+  }
+
+  public void addText(String text, Paint fill_colour, Paint stroke_colour,
+                      int x, int y)
+  {
+    if (text_count == texts.length)
+    {
+      int capacity = texts.length * 2;
+      texts = grow(texts, new String[capacity]);
+      text_fill_colour = grow(text_fill_colour, new Paint[capacity]);
+      text_stroke_colour = grow(text_stroke_colour, new Paint[capacity]);
+      text_x = grow(text_x, capacity);
+      text_y = grow(text_y, capacity);
+    }
+
+    texts[text_count] = text;
+    text_fill_colour[text_count] = fill_colour;
+    text_stroke_colour[text_count] = stroke_colour;
+    text_x[text_count] = x;
+    text_y[text_count] = y;
+    ++text_count;
+  }
+
+  /**
+  Order the bitmap commands so that all commands drawing the same bitmap are
+  performed one after another, which lets the canvas reuse its state for the
+  bitmap. Groups are ordered by the ranks of their bitmaps, so bitmaps stack
+  the same way in every frame, and commands within a group keep the order in
+  which they were added. Sets bitmap_order.
+  @param ranks Ranks of bitmaps, kept across frames.
+  */
+  public void groupBitmaps(BitmapRanks ranks)
+  {
+    int group_count = 0;
+    int last_group = -1;
+    for (int i = 0; i < bitmap_count; ++i)
+    {
+      Bitmap bitmap = bitmaps[i];
+      //Commands drawing the same bitmap are often added one after another.
+      int group = last_group;
+      if (group == -1 || group_bitmaps[group] != bitmap)
+      {
+        group = 0;
+        while (group < group_count && group_bitmaps[group] != bitmap)
+          ++group;
+        if (group == group_count)
+        {
+          if (group_count == group_bitmaps.length)
+          {
+            group_bitmaps = grow(group_bitmaps, new Bitmap[group_count * 2]);
+            group_sizes = grow(group_sizes, group_count * 2);
+            sorted_groups = grow(sorted_groups, group_count * 2);
+            sorted_ranks = grow(sorted_ranks, group_count * 2);
+          }
+          group_bitmaps[group] = bitmap;
+          group_sizes[group] = 0;
+          ++group_count;
+        }
+      }
+      bitmap_group[i] = group;
+      ++group_sizes[group];
+      last_group = group;
+    }
+
+    //Sort the groups by rank. There are few groups, so insertion sort suffices.
+    for (int group = 0; group < group_count; ++group)
+    {
+      int rank = ranks.get(group_bitmaps[group]);
+      int position = group;
+      while (position > 0 && sorted_ranks[position - 1] > rank)
+      {
+        sorted_groups[position] = sorted_groups[position - 1];
+        sorted_ranks[position] = sorted_ranks[position - 1];
+        --position;
+      }
+      sorted_groups[position] = group;
+      sorted_ranks[position] = rank;
+      group_bitmaps[group] = null;
+    }
+
+    //Turn the sizes into the start of each group, then place each command.
+    int start = 0;
+    for (int position = 0; position < group_count; ++position)
+    {
+      int group = sorted_groups[position];
+      int size = group_sizes[group];
+      group_sizes[group] = start;
+      start += size;
+    }
+    for (int i = 0; i < bitmap_count; ++i)
+      bitmap_order[group_sizes[bitmap_group[i]]++] = i;
+  }
+
+  /**
+  Remove all commands. Capacity is kept. References are released so that
+  bitmaps and paints used only by the previous frame can be collected.
+  */
+  public void clear()
+  {
+    for (int i = 0; i < bitmap_count; ++i)
+      bitmaps[i] = null;
+    for (int i = 0; i < shape_count; ++i)
+      shape_colour[i] = null;
+    for (int i = 0; i < text_count; ++i)
+    {
+      texts[i] = null;
+      text_fill_colour[i] = null;
+      text_stroke_colour[i] = null;
+    }
+    bitmap_count = 0;
+    shape_count = 0;
+    text_count = 0;
+  }
+
+  /**
+  Get the amount of commands of all types.
+  @return Amount of commands.
+  */
+  public int getCommandCount()
+  {
+    return bitmap_count + shape_count + text_count;
+  }
+
+  /**
+  Get the approximate amount of bytes used by all commands.
+  @return Amount of bytes.
+  */
+  public int getCommandBytes()
+  {
+    return bitmap_count * BITMAP_COMMAND_BYTES +
+           shape_count * SHAPE_COMMAND_BYTES + text_count * TEXT_COMMAND_BYTES;
+  }
+
+  private static <T> T[] grow(T[] array, T[] grown)
+  {
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+
+  private static int[] grow(int[] array, int capacity)
+  {
+    int[] grown = new int[capacity];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+
+  private static float[] grow(float[] array, int capacity)
+  {
+    float[] grown = new float[capacity];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import android.graphics.Bitmap;
+
+/**
+All render commands needed to draw one frame: commands in world space, commands
+in screen space (HUD) and the world position on which the screen is focused.
+*/
+class RenderFrame
+{
+  //Radius assumed for bitmaps of unknown size, such as the null bitmaps of
+  //sprites which are not decoded headlessly. Larger than any sprite's bitmap.
+  private static final float UNKNOWN_BITMAP_RADIUS = 128.0f;
+
+  public final RenderCommandBuffer world = new RenderCommandBuffer();
+  public final RenderCommandBuffer hud = new RenderCommandBuffer();
+  public int focus_x = 0, focus_y = 0;
+  //Focus at the previous simulation step, used for interpolation.
+  public int previous_focus_x = 0, previous_focus_y = 0;
+  //Value of System.nanoTime() when the simulation finished this frame.
+  public long finished_nanoseconds = 0;
+  //Amount of world space bitmaps not added because they were out of view.
+  public int culled_bitmap_count = 0;
+
+  /**
+  Remove all commands in preparation for building a new frame which follows the
+  frame currently stored. The current focus becomes the previous focus.
+  */
+  public void clear()
+  {
+    world.clear();
+    hud.clear();
+    culled_bitmap_count = 0;
+    previous_focus_x = focus_x;
+    previous_focus_y = focus_y;
+  }
+
+  /**
+  Determine whether a world space bitmap may be visible on a screen focused on
+  this frame's focus. Drawing interpolates both the bitmap and the focus between
+  their previous and current positions, so the bitmap is treated as visible if
+  its bounds at any point between those positions may overlap the screen.
+  @param bitmap The bitmap, or null if its size is unknown.
+  @param previous_x The X position of the bitmap's centre at the previous step.
+  @param previous_y The Y position of the bitmap's centre at the previous step.
+  @param x The X position of the bitmap's centre.
+  @param y The Y position of the bitmap's centre.
+  @param screen_width Width of the screen. If 0, everything is visible.
+  @param screen_height Height of the screen. If 0, everything is visible.
+  @return True if the bitmap may be visible, false if it is certainly not.
+  */
+  public boolean isInView(Bitmap bitmap, int previous_x, int previous_y, int x,
+                          int y, int screen_width, int screen_height)
+  {
+    if (screen_width <= 0 || screen_height <= 0)
+      return true;
+
+    //The circle around a bitmap contains it at any rotation.
+    float radius = UNKNOWN_BITMAP_RADIUS;
+    if (bitmap != null)
+    {
+      float width = bitmap.getWidth(), height = bitmap.getHeight();
+      radius = (float) Math.sqrt(width * width + height * height) / 2.0f + 1.0f;
+    }
+
+    //Positions relative to the focus. Interpolated positions lie between them.
+    int previous_relative_x = previous_x - previous_focus_x;
+    int previous_relative_y = previous_y - previous_focus_y;
+    int relative_x = x - focus_x, relative_y = y - focus_y;
+    float half_width = screen_width / 2.0f + radius;
+    float half_height = screen_height / 2.0f + radius;
+    return Math.min(previous_relative_x, relative_x) <= half_width &&
+           Math.max(previous_relative_x, relative_x) >= -half_width &&
+           Math.min(previous_relative_y, relative_y) <= half_height &&
+           Math.max(previous_relative_y, relative_y) >= -half_height;
+  }
+
+  /**
+  Get the amount of commands in both world and screen space.
+  @return Amount of commands.
+  */
+  public int getCommandCount()
+  {
+    return world.getCommandCount() + hud.getCommandCount();
+  }
+
+  /**
+  Get the approximate amount of bytes used by commands in both world and screen
+  space.
+  @return Amount of bytes.
+  */
+  public int getCommandBytes()
+  {
+    return world.getCommandBytes() + hud.getCommandBytes();
+  }
+}
@@ -0,0 +1,30 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import android.content.res.Resources;
+import android.graphics.BitmapFactory;
+
+/**
+Loads sprites by decoding drawable resources.
+*/
+public class ResourceSpriteLoader implements ISpriteLoader
+{
+  private Resources resources;
+
+  public ResourceSpriteLoader(Resources resources)
+  {
+    this.resources = resources;
+  }
+
+  public Sprite load(int resource_id)
+  {
+    return new Sprite(resource_id,
+                      BitmapFactory.decodeResource(resources, resource_id));
+  }
+}
@@ -0,0 +1,402 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+Uniform grid dividing the world into square cells. Each actor is stored in the
+cell containing its centre so that spatial queries only need to visit the cells
+overlapping the area of interest instead of every actor in the world. Actors
+outside of the grid are stored in the nearest border cell.
+*/
+class SpatialGrid
+{
+  private final float cell_size;
+  private final int cells_per_side;
+  private final float origin;
+  private final ArrayList<Actor>[] cells;
+  private float max_actor_radius = 0.0f;
+
+  /**
+  Construct an empty grid.
+  @param play_size Width and height of the area the grid covers, centred at the
+    world origin.
+  @param cell_size Width and height of each cell in world units.
+  */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public SpatialGrid(int play_size, float cell_size)
+  {
+    this.cell_size = cell_size;
+    cells_per_side = Math.max(1, (int) Math.ceil(play_size / cell_size));
+    origin = -(cells_per_side * cell_size) / 2.0f;
+    cells = new ArrayList[cells_per_side * cells_per_side];
+  }
+
+  /**
+  Add an actor to the cell containing its position.
+  @param actor Actor to add. Must not already be in the grid.
+  */
+  public void insert(Actor actor)
+  {
+    int cell = cellOf(actor.getX(), actor.getY());
+    if (cells[cell] == null)
+      cells[cell] = new ArrayList<Actor>();
+    cells[cell].add(actor);
+    actor.grid_cell = cell;
+    max_actor_radius = Math.max(max_actor_radius, actor.getRadius());
+  }
+
+  /**
+  Remove an actor from the grid if it is in the grid.
+  @param actor Actor to remove.
+  */
+  public void remove(Actor actor)
+  {
+    if (actor.grid_cell < 0)
+      return;
+    cells[actor.grid_cell].remove(actor);
+    actor.grid_cell = -1;
+  }
+
+  /**
+  Move an actor to a new cell if its position changed cells since it was last
+  inserted or moved.
+  @param actor Actor which has moved.
+  */
+  public void update(Actor actor)
+  {
+    if (actor.grid_cell < 0)
+      return;
+    int cell = cellOf(actor.getX(), actor.getY());
+    if (cell == actor.grid_cell)
+      return;
+    cells[actor.grid_cell].remove(actor);
+    if (cells[cell] == null)
+      cells[cell] = new ArrayList<Actor>();
+    cells[cell].add(actor);
+    actor.grid_cell = cell;
+  }
+
+  /**
+  Get the largest collision radius of any actor inserted so far. Queries which
+  must include actors whose edge (not centre) is in an area can extend the area
+  by this amount.
+  @return Radius in world units.
+  */
+  public float getMaxActorRadius()
+  {
+    return max_actor_radius;
+  }
+
+  /**
+  Get the amount of cells in each row and column.
+  @return Amount of cells.
+  */
+  public int getCellsPerSide()
+  {
+    return cells_per_side;
+  }
+
+  /**
+  Get the width and height of each cell.
+  @return Size in world units.
+  */
+  public float getCellSize()
+  {
+    return cell_size;
+  }
+
+  /**
+  Get the actors whose centre is in a cell. Must not be modified.
+  @param row Row of the cell.
+  @param column Column of the cell.
+  @return Actors in the cell, or null if no actor was ever in the cell.
+  */
+  public ArrayList<Actor> getCell(int row, int column)
+  {
+    return cells[row * cells_per_side + column];
+  }
+
+  /**
+  Find all actors whose centre is within a radius of a point.
+  @param x X position of the centre of the search.
+  @param y Y position of the centre of the search.
+  @param radius Maximum distance from the centre.
+  @param type Only actors which are instances of this class are found. All
+    actors if null.
+  @param result Collection to which found actors are added.
+  */
+  public void queryRadius(float x, float y, float radius,
+                          Class<?> type, Collection<Actor> result)
+  {
+    float radius_squared = radius * radius;
+    int min_column = columnOf(x - radius), max_column = columnOf(x + radius);
+    int min_row = columnOf(y - radius), max_row = columnOf(y + radius);
+    for (int row = min_row; row <= max_row; ++row)
+    {
+      for (int column = min_column; column <= max_column; ++column)
+      {
+        ArrayList<Actor> cell = cells[row * cells_per_side + column];
+        if (cell == null)
+          continue;
+        for (int i = 0; i < cell.size(); ++i)
+        {
+          Actor actor = cell.get(i);
+          if (type != null && !type.isInstance(actor))
+            continue;
+          float delta_x = actor.getX() - x, delta_y = actor.getY() - y;
+          if (delta_x * delta_x + delta_y * delta_y <= radius_squared)
+            result.add(actor);
+        }
+      }
+    }
+  }
+
+  /**
+  Find all actors whose centre is within an axis-aligned rectangle.
+  @param left Minimum X position.
+  @param top Minimum Y position.
+  @param right Maximum X position.
+  @param bottom Maximum Y position.
+  @param type Only actors which are instances of this class are found. All
+    actors if null.
+  @param result Collection to which found actors are added.
+  */
+  public void queryRect(float left, float top, float right, float bottom,
+                        Class<?> type, Collection<Actor> result)
+  {
+    int min_column = columnOf(left), max_column = columnOf(right);
+    int min_row = columnOf(top), max_row = columnOf(bottom);
+    for (int row = min_row; row <= max_row; ++row)
+    {
+      for (int column = min_column; column <= max_column; ++column)
+      {
+        ArrayList<Actor> cell = cells[row * cells_per_side + column];
+        if (cell == null)
+          continue;
+        for (int i = 0; i < cell.size(); ++i)
+        {
+          Actor actor = cell.get(i);
+          if (type != null && !type.isInstance(actor))
+            continue;
+          float actor_x = actor.getX(), actor_y = actor.getY();
+          if (actor_x >= left && actor_x <= right && actor_y >= top &&
+              actor_y <= bottom)
+            result.add(actor);
+        }
+      }
+    }
+  }
+
+  /**
+  Find the k actors whose centres are nearest to a point. Searches rings of
+  cells outward from the point until no closer actor can exist.
+  @param x X position of the centre of the search.
+  @param y Y position of the centre of the search.
+  @param k Maximum amount of actors to find.
+  @param type Only actors which are instances of this class are found. All
+    actors if null.
+  @param exclude Actor which is never found (usually the actor searching). May
+    be null.
+  @param result Collection to which found actors are added, nearest first.
+  */
+  public void queryNearest(float x, float y, int k, Class<?> type,
+                           Actor exclude, Collection<Actor> result)
+  {
+    if (k <= 0)
+      return;
+
+    Actor[] best = new Actor[k];
+    float[] best_distances = new float[k];
+    int found = 0;
+
+    int centre_column = columnOf(x), centre_row = columnOf(y);
+    for (int ring = 0; ring < cells_per_side; ++ring)
+    {
+      //Once k actors are found, stop when every cell in this ring is further
+      //away than the furthest actor found.
+      if (found == k)
+      {
+        float ring_distance = (ring - 1) * cell_size;
+        if (ring_distance > 0.0f &&
+            ring_distance * ring_distance > best_distances[k - 1])
+          break;
+      }
+
+      for (int row = centre_row - ring; row <= centre_row + ring; ++row)
+      {
+        if (row < 0 || row >= cells_per_side)
+          continue;
+        //Only the border of the ring is visited. Inner cells were visited by
+        //previous rings.
+        boolean border_row = row == centre_row - ring ||
+                             row == centre_row + ring;
+        int step = border_row || ring == 0 ? 1 : ring * 2;
+        for (int column = centre_column - ring; column <= centre_column + ring;
+             column += step)
+        {
+          if (column < 0 || column >= cells_per_side)
+            continue;
+          ArrayList<Actor> cell = cells[row * cells_per_side + column];
+          if (cell == null)
+            continue;
+          for (int i = 0; i < cell.size(); ++i)
+          {
+            Actor actor = cell.get(i);
+            if (actor == exclude || (type != null && !type.isInstance(actor)))
+              continue;
+            float delta_x = actor.getX() - x, delta_y = actor.getY() - y;
+            float distance = delta_x * delta_x + delta_y * delta_y;
+            if (found == k && distance >= best_distances[k - 1])
+              continue;
+
+            //Insertion sort into the list of best actors.
+            int position = found < k ? found++ : k - 1;
+            while (position > 0 && best_distances[position - 1] > distance)
+            {
+              best[position] = best[position - 1];
+              best_distances[position] = best_distances[position - 1];
+              --position;
+            }
+            best[position] = actor;
+            best_distances[position] = distance;
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < found; ++i)
+      result.add(best[i]);
+  }
+
+  /**
+  Find the actor nearest to a point whose centre is within a cone starting at
+  the point. Only the cells overlapping the bounding box of the cone and within
+  its range are visited.
+  @param x X position of the apex of the cone.
+  @param y Y position of the apex of the cone.
+  @param direction_x X component of the unit vector along the centre of the
+    cone.
+  @param direction_y Y component of the unit vector along the centre of the
+    cone.
+  @param half_angle Maximum angle in radians between the centre of the cone and
+    the direction to a found actor. At most PI / 2.
+  @param range Maximum distance from the apex.
+  @param type Only actors which are instances of this class are found. All
+    actors if null.
+  @param exclude Actor which is never found (usually the actor searching). May
+    be null.
+  @return Nearest actor in the cone, or null if none found.
+  */
+  public Actor queryCone(float x, float y, float direction_x,
+                         float direction_y, float half_angle, float range,
+                         Class<?> type, Actor exclude)
+  {
+    float cos_half_angle = (float) Math.cos(half_angle);
+    float sin_half_angle = (float) Math.sin(half_angle);
+    float range_squared = range * range;
+
+    //Bounding box of the apex, both edges and the points of the arc furthest
+    //along each axis within the cone.
+    float left_x = x + range * (direction_x * cos_half_angle -
+                                direction_y * sin_half_angle);
+    float left_y = y + range * (direction_x * sin_half_angle +
+                                direction_y * cos_half_angle);
+    float right_x = x + range * (direction_x * cos_half_angle +
+                                 direction_y * sin_half_angle);
+    float right_y = y + range * (-direction_x * sin_half_angle +
+                                 direction_y * cos_half_angle);
+    float min_x = Math.min(x, Math.min(left_x, right_x));
+    float max_x = Math.max(x, Math.max(left_x, right_x));
+    float min_y = Math.min(y, Math.min(left_y, right_y));
+    float max_y = Math.max(y, Math.max(left_y, right_y));
+    //An axis is within the cone if the component of the direction along it is
+    //at least the cosine of the half angle.
+    if (direction_x >= cos_half_angle)
+      max_x = x + range;
+    if (-direction_x >= cos_half_angle)
+      min_x = x - range;
+    if (direction_y >= cos_half_angle)
+      max_y = y + range;
+    if (-direction_y >= cos_half_angle)
+      min_y = y - range;
+
+    Actor nearest = null;
+    float nearest_distance = Float.MAX_VALUE;
+    int min_column = columnOf(min_x), max_column = columnOf(max_x);
+    int min_row = columnOf(min_y), max_row = columnOf(max_y);
+    for (int row = min_row; row <= max_row; ++row)
+    {
+      for (int column = min_column; column <= max_column; ++column)
+      {
+        ArrayList<Actor> cell = cells[row * cells_per_side + column];
+        if (cell == null)
+          continue;
+        //Skip cells entirely out of range of the apex. Border cells also hold
+        //actors outside of the grid, so they are never skipped.
+        if (row > 0 && row < cells_per_side - 1 && column > 0 &&
+            column < cells_per_side - 1)
+        {
+          float cell_left = origin + column * cell_size;
+          float cell_top = origin + row * cell_size;
+          float nearest_x = Math.max(cell_left,
+                                     Math.min(x, cell_left + cell_size));
+          float nearest_y = Math.max(cell_top,
+                                     Math.min(y, cell_top + cell_size));
+          float delta_x = nearest_x - x, delta_y = nearest_y - y;
+          if (delta_x * delta_x + delta_y * delta_y > range_squared)
+            continue;
+        }
+
+        for (int i = 0; i < cell.size(); ++i)
+        {
+          Actor actor = cell.get(i);
+          if (actor == exclude || (type != null && !type.isInstance(actor)))
+            continue;
+          float delta_x = actor.getX() - x, delta_y = actor.getY() - y;
+          float distance = delta_x * delta_x + delta_y * delta_y;
+          if (distance > range_squared || distance >= nearest_distance)
+            continue;
+          //Within the half angle if the distance along the direction is at
+          //least the cosine of the half angle times the distance.
+          float along = delta_x * direction_x + delta_y * direction_y;
+          if (along <= 0.0f ||
+              along * along < cos_half_angle * cos_half_angle * distance)
+            continue;
+          nearest = actor;
+          nearest_distance = distance;
+        }
+      }
+    }
+    return nearest;
+  }
+
+  /**
+  Get the column (or row) of the cell containing a coordinate, clamped to the
+  grid.
+  */
+  private int columnOf(float coordinate)
+  {
+    int column = (int) Math.floor((coordinate - origin) / cell_size);
+    if (column < 0)
+      return 0;
+    if (column >= cells_per_side)
+      return cells_per_side - 1;
+    return column;
+  }
+
+  /**
+  Get the index of the cell containing a position.
+  */
+  private int cellOf(float x, float y)
+  {
+    return columnOf(y) * cells_per_side + columnOf(x);
+  }
+}
@@ -0,0 +1,107 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import android.graphics.Bitmap;
+
+/**
+Immutable bitmap shared between all actors drawn with the same resource, along
+with measurements precomputed from it. Obtained from
+{@link SpriteCache#acquire(int) SpriteCache.acquire()}.
+*/
+public final class Sprite
+{
+  private final int resource_id;
+  private final Bitmap bitmap;
+  private final int width, height;
+  private final float radius;
+
+  /**
+  Construct a sprite measured from its bitmap.
+  @param resource_id Resource ID from which the sprite was loaded.
+  @param bitmap Decoded bitmap.
+  */
+  public Sprite(int resource_id, Bitmap bitmap)
+  {
+    this(resource_id, bitmap, bitmap.getWidth(), bitmap.getHeight());
+  }
+
+  /**
+  Construct a sprite with an explicit size.
+  @param resource_id Resource ID from which the sprite was loaded.
+  @param bitmap Decoded bitmap. May be null if the sprite is never drawn to a
+    screen, such as when rendering headlessly.
+  @param width Width in pixels.
+  @param height Height in pixels.
+  */
+  public Sprite(int resource_id, Bitmap bitmap, int width, int height)
+  {
+    this.resource_id = resource_id;
+    this.bitmap = bitmap;
+    this.width = width;
+    this.height = height;
+    //Use the average of the width and height as the diameter.
+    radius = (width + height) / 4.0f;
+  }
+
+  /**
+  Get the resource ID from which this sprite was loaded.
+  @return Resource ID.
+  */
+  public int getResourceId()
+  {
+    return resource_id;
+  }
+
+  /**
+  Get the bitmap. Must not be modified.
+  @return Bitmap. Null if the sprite was loaded without a bitmap.
+  */
+  public Bitmap getBitmap()
+  {
+    return bitmap;
+  }
+
+  public int getWidth()
+  {
+    return width;
+  }
+
+  public int getHeight()
+  {
+    return height;
+  }
+
+  /**
+  Get the radius used for radial collisions: half of the average of the width
+  and height.
+  @return Radius in pixels.
+  */
+  public float getRadius()
+  {
+    return radius;
+  }
+
+  /**
+  Get the amount of bytes used by the bitmap.
+  @return Amount of bytes. 0 if there is no bitmap.
+  */
+  public int getByteCount()
+  {
+    return bitmap == null ? 0 : bitmap.getRowBytes() * bitmap.getHeight();
+  }
+
+  /**
+  Free the bitmap. The sprite must not be drawn afterward.
+  */
+  void recycle()
+  {
+    if (bitmap != null)
+      bitmap.recycle();
+  }
+}
@@ -0,0 +1,161 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+Loads each drawable resource once and shares the resulting sprite between all
+users. Sprites are reference counted: each call to
+{@link #acquire(int) acquire()} must be matched by a call to
+{@link #release(Sprite) release()}. A sprite is recycled when it is no longer
+used unless it was preloaded, in which case it is kept until
+{@link #clear() clear()} is called.
+*/
+public class SpriteCache
+{
+  private ISpriteLoader loader;
+  private HashMap<Integer, Sprite> sprites = new HashMap<Integer, Sprite>();
+  private HashMap<Integer, Integer> reference_counts =
+    new HashMap<Integer, Integer>();
+  private HashSet<Integer> preloaded = new HashSet<Integer>();
+
+  private int hits = 0, misses = 0;
+  private long bytes = 0;
+
+  public SpriteCache(ISpriteLoader loader)
+  {
+    this.loader = loader;
+  }
+
+  /**
+  Load resources ahead of time so that no loading occurs during play.
+  Preloaded sprites stay in the cache even while unused.
+  @param resource_ids Drawable resource IDs.
+  */
+  public synchronized void preload(int... resource_ids)
+  {
+    for (int resource_id : resource_ids)
+    {
+      if (!sprites.containsKey(resource_id))
+        load(resource_id);
+      preloaded.add(resource_id);
+    }
+  }
+
+  /**
+  Get the sprite for a resource, loading it if it is not yet cached.
+  @param resource_id Drawable resource ID.
+  @return Shared sprite.
+  */
+  public synchronized Sprite acquire(int resource_id)
+  {
+    Sprite sprite = sprites.get(resource_id);
+    if (sprite != null)
+      ++hits;
+    else
+    {
+      ++misses;
+      sprite = load(resource_id);
+    }
+
+    Integer count = reference_counts.get(resource_id);
+    reference_counts.put(resource_id, count == null ? 1 : count + 1);
+    return sprite;
+  }
+
+  /**
+  Signal that a sprite obtained from {@link #acquire(int) acquire()} is no
+  longer used.
+  @param sprite Sprite no longer used.
+  */
+  public synchronized void release(Sprite sprite)
+  {
+    int resource_id = sprite.getResourceId();
+    Integer count = reference_counts.get(resource_id);
+    if (count == null)
+      return;
+
+    if (count > 1)
+      reference_counts.put(resource_id, count - 1);
+    else
+    {
+      reference_counts.remove(resource_id);
+      if (!preloaded.contains(resource_id))
+        unload(resource_id);
+    }
+  }
+
+  /**
+  Recycle all sprites, including those still in use. Call only when no more
+  drawing will occur, such as when the engine shuts down.
+  */
+  public synchronized void clear()
+  {
+    for (Sprite sprite : sprites.values())
+      sprite.recycle();
+    sprites.clear();
+    reference_counts.clear();
+    preloaded.clear();
+    bytes = 0;
+  }
+
+  /**
+  Get the amount of acquisitions which found the sprite already decoded.
+  @return Amount of cache hits.
+  */
+  public synchronized int getHits()
+  {
+    return hits;
+  }
+
+  /**
+  Get the amount of acquisitions which needed to load the sprite.
+  @return Amount of cache misses.
+  */
+  public synchronized int getMisses()
+  {
+    return misses;
+  }
+
+  /**
+  Get the amount of bytes used by all cached bitmaps.
+  @return Amount of bytes.
+  */
+  public synchronized long getByteCount()
+  {
+    return bytes;
+  }
+
+  /**
+  Get the amount of distinct sprites in the cache.
+  @return Amount of sprites.
+  */
+  public synchronized int getSpriteCount()
+  {
+    return sprites.size();
+  }
+
+  private Sprite load(int resource_id)
+  {
+    Sprite sprite = loader.load(resource_id);
+    sprites.put(resource_id, sprite);
+    bytes += sprite.getByteCount();
+    return sprite;
+  }
+
+  private void unload(int resource_id)
+  {
+    Sprite sprite = sprites.remove(resource_id);
+    if (sprite == null)
+      return;
+    bytes -= sprite.getByteCount();
+    sprite.recycle();
+  }
+}
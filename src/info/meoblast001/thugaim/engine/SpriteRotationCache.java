@@ -0,0 +1,224 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.IdentityHashMap;
+
+/**
+Sprites pre-rendered at a fixed amount of evenly spaced angles, so that a
+rotated sprite can be drawn by copying the frame nearest to its angle instead
+of rotating its bitmap. The frames of each sprite are stored together in one
+atlas bitmap. Sprites are only pre-rendered when requested, and only while the
+atlases fit in a memory budget; if the full amount of angles does not fit, fewer
+angles are tried before the sprite is left to be rotated while drawing.
+*/
+public class SpriteRotationCache
+{
+  /**
+  Amount of angles at which sprites are pre-rendered unless set otherwise.
+  */
+  public static final int DEFAULT_ANGLE_COUNT = 64;
+  /**
+  Bytes which all atlases may use unless set otherwise.
+  */
+  public static final long DEFAULT_BUDGET_BYTES = 4 * 1024 * 1024;
+  //Fewest angles at which a sprite is pre-rendered to fit in the budget.
+  private static final int MIN_ANGLE_COUNT = 8;
+  private static final int BYTES_PER_PIXEL = 4;
+
+  /**
+  Frames of one sprite. Each frame is a square cell in the atlas, large enough
+  to contain the sprite at any angle, with the sprite's centre at its centre.
+  */
+  static class Rotations
+  {
+    public final Bitmap atlas;
+    public final int angle_count;
+    public final int cell_size;
+    public final int columns;
+
+    public Rotations(Bitmap atlas, int angle_count, int cell_size, int columns)
+    {
+      this.atlas = atlas;
+      this.angle_count = angle_count;
+      this.cell_size = cell_size;
+      this.columns = columns;
+    }
+
+    /**
+    Find the bounds in the atlas of the frame nearest to an angle.
+    @param angle Radians of rotation.
+    @param bounds Set to the bounds of the frame.
+    */
+    public void getFrameBounds(float angle, Rect bounds)
+    {
+      int frame = Math.round(angle * angle_count / (float) (Math.PI * 2.0)) %
+                  angle_count;
+      if (frame < 0)
+        frame += angle_count;
+      int left = (frame % columns) * cell_size;
+      int top = (frame / columns) * cell_size;
+      bounds.set(left, top, left + cell_size, top + cell_size);
+    }
+  }
+
+  private int angle_count = DEFAULT_ANGLE_COUNT;
+  private long budget_bytes = DEFAULT_BUDGET_BYTES;
+  private long bytes = 0;
+  //Replaced instead of modified so that the render thread never reads a map
+  //being changed.
+  private volatile IdentityHashMap<Bitmap, Rotations> rotations =
+    new IdentityHashMap<Bitmap, Rotations>();
+
+  /**
+  Set the amount of angles at which sprites pre-rendered afterward are rendered.
+  @param angle_count Amount of angles. More angles draw rotations more
+    accurately but use more memory.
+  */
+  public synchronized void setAngleCount(int angle_count)
+  {
+    if (angle_count < MIN_ANGLE_COUNT)
+    {
+      throw new IllegalArgumentException("At least " + MIN_ANGLE_COUNT +
+                                         " angles are needed.");
+    }
+    this.angle_count = angle_count;
+  }
+
+  /**
+  Get the amount of angles at which sprites are pre-rendered.
+  @return Amount of angles.
+  */
+  public synchronized int getAngleCount()
+  {
+    return angle_count;
+  }
+
+  /**
+  Set the bytes which all atlases may use. Atlases already rendered are kept.
+  @param budget_bytes Amount of bytes.
+  */
+  public synchronized void setBudget(long budget_bytes)
+  {
+    this.budget_bytes = budget_bytes;
+  }
+
+  /**
+  Get the bytes which all atlases may use.
+  @return Amount of bytes.
+  */
+  public synchronized long getBudget()
+  {
+    return budget_bytes;
+  }
+
+  /**
+  Get the amount of bytes used by all atlases.
+  @return Amount of bytes.
+  */
+  public synchronized long getByteCount()
+  {
+    return bytes;
+  }
+
+  /**
+  Get the amount of sprites pre-rendered.
+  @return Amount of sprites.
+  */
+  public int getSpriteCount()
+  {
+    return rotations.size();
+  }
+
+  /**
+  Pre-render a sprite at each angle, or at fewer angles if its atlas would not
+  otherwise fit in the budget. Does nothing if the sprite has no bitmap, is
+  already pre-rendered or does not fit in the budget at all.
+  @param sprite Sprite to pre-render.
+  @return True if the sprite is pre-rendered, false if not.
+  */
+  public synchronized boolean prerender(Sprite sprite)
+  {
+    Bitmap bitmap = sprite.getBitmap();
+    if (bitmap == null)
+      return false;
+    if (rotations.containsKey(bitmap))
+      return true;
+
+    //A cell as wide as the sprite's diagonal contains it at any angle.
+    int width = bitmap.getWidth(), height = bitmap.getHeight();
+    int cell_size = (int) Math.ceil(Math.sqrt(width * width + height * height))
+                    + 1;
+    int count = angle_count;
+    while (count >= MIN_ANGLE_COUNT &&
+           bytes + atlasBytes(count, cell_size) > budget_bytes)
+      count /= 2;
+    if (count < MIN_ANGLE_COUNT)
+      return false;
+
+    int columns = (int) Math.ceil(Math.sqrt(count));
+    int rows = (count + columns - 1) / columns;
+    Bitmap atlas = Bitmap.createBitmap(columns * cell_size, rows * cell_size,
+                                       Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(atlas);
+    Matrix matrix = new Matrix();
+    //Rendered once, so the quality of filtering is worth its cost.
+    Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    for (int frame = 0; frame < count; ++frame)
+    {
+      matrix.setTranslate(-width / 2.0f, -height / 2.0f);
+      matrix.postRotate(frame * 360.0f / count);
+      matrix.postTranslate((frame % columns) * cell_size + cell_size / 2,
+                           (frame / columns) * cell_size + cell_size / 2);
+      canvas.drawBitmap(bitmap, matrix, paint);
+    }
+
+    IdentityHashMap<Bitmap, Rotations> grown =
+      new IdentityHashMap<Bitmap, Rotations>(rotations);
+    grown.put(bitmap, new Rotations(atlas, count, cell_size, columns));
+    rotations = grown;
+    bytes += (long) atlas.getRowBytes() * atlas.getHeight();
+    return true;
+  }
+
+  /**
+  Recycle all atlases. Call only when no more drawing will occur, such as when
+  the engine shuts down.
+  */
+  public synchronized void clear()
+  {
+    IdentityHashMap<Bitmap, Rotations> cleared = rotations;
+    rotations = new IdentityHashMap<Bitmap, Rotations>();
+    for (Rotations cur : cleared.values())
+      cur.atlas.recycle();
+    bytes = 0;
+  }
+
+  /**
+  Get the frames of a bitmap.
+  @param bitmap Bitmap of a sprite.
+  @return Frames, or null if the bitmap is not pre-rendered.
+  */
+  Rotations get(Bitmap bitmap)
+  {
+    return rotations.get(bitmap);
+  }
+
+  private static long atlasBytes(int count, int cell_size)
+  {
+    int columns = (int) Math.ceil(Math.sqrt(count));
+    int rows = (count + columns - 1) / columns;
+    return (long) columns * cell_size * rows * cell_size * BYTES_PER_PIXEL;
+  }
+}
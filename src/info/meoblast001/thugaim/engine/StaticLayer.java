@@ -0,0 +1,187 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+
+/**
+World space bitmaps which never move, drawn from tiles rendered once instead of
+from commands built every frame. The world is divided into square tiles, and a
+tile is rendered when it first becomes visible after the bitmaps change, and
+tiles containing no bitmaps are never drawn. A limited amount of tiles is kept;
+the least recently drawn are reused for newly visible tiles.
+
+The bitmaps are set on the simulation thread and tiles are rendered and drawn on
+the render thread. The layer is drawn beneath all other world space commands on
+the black background, so tiles are opaque.
+*/
+class StaticLayer
+{
+  //Width and height of each tile.
+  private static final int TILE_SIZE = 256;
+
+  /**
+  One tile, rendered from one set of commands.
+  */
+  private static class Tile
+  {
+    public int column, row;
+    //Commands from which the tile was rendered, or null if never rendered.
+    public RenderCommandBuffer commands = null;
+    //Kept while the tile is reused, even if empty.
+    public Bitmap bitmap = null;
+    //True if no bitmap overlaps the tile.
+    public boolean empty = true;
+    //Value of drawn_count when the tile was last drawn.
+    public long last_drawn = 0;
+  }
+
+  //Never modified once set, and replaced whenever the bitmaps change.
+  private volatile RenderCommandBuffer commands = new RenderCommandBuffer();
+
+  //Only used by the render thread.
+  private Tile[] tiles = new Tile[0];
+  private long drawn_count = 0;
+  private Canvas tile_canvas = new Canvas();
+  private Matrix matrix = new Matrix();
+
+  /**
+  Replace all bitmaps of the layer. Only called from the simulation thread.
+  @param commands Bitmap commands of the layer. Must not be modified afterward.
+  */
+  public void setCommands(RenderCommandBuffer commands)
+  {
+    this.commands = commands;
+  }
+
+  /**
+  Draw the tiles overlapping an area of the world, rendering them if needed.
+  Only called from the render thread.
+  @param canvas Canvas translated to world space.
+  @param left Left edge of the area in world space.
+  @param top Top edge of the area in world space.
+  @param right Right edge of the area in world space.
+  @param bottom Bottom edge of the area in world space.
+  */
+  public void draw(Canvas canvas, int left, int top, int right, int bottom)
+  {
+    RenderCommandBuffer commands = this.commands;
+    if (commands.bitmap_count == 0)
+      return;
+
+    int first_column = tileOf(left), last_column = tileOf(right);
+    int first_row = tileOf(top), last_row = tileOf(bottom);
+    //Keep enough tiles for the visible area to move by one tile in any
+    //direction.
+    int needed = (last_column - first_column + 2) * (last_row - first_row + 2);
+    if (tiles.length < needed)
+    {
+      Tile[] grown = new Tile[needed];
+      System.arraycopy(tiles, 0, grown, 0, tiles.length);
+      for (int i = tiles.length; i < needed; ++i)
+        grown[i] = new Tile();
+      tiles = grown;
+    }
+
+    ++drawn_count;
+    for (int row = first_row; row <= last_row; ++row)
+    {
+      for (int column = first_column; column <= last_column; ++column)
+      {
+        Tile tile = findTile(column, row, commands);
+        tile.last_drawn = drawn_count;
+        if (!tile.empty)
+        {
+          canvas.drawBitmap(tile.bitmap, column * TILE_SIZE, row * TILE_SIZE,
+                            null);
+        }
+      }
+    }
+  }
+
+  /**
+  Find the tile at a position rendered from the current commands, rendering it
+  if there is none.
+  */
+  private Tile findTile(int column, int row, RenderCommandBuffer commands)
+  {
+    Tile reused = null;
+    for (int i = 0; i < tiles.length; ++i)
+    {
+      Tile tile = tiles[i];
+      if (tile.commands != null && tile.column == column && tile.row == row)
+      {
+        if (tile.commands == commands)
+          return tile;
+        //Rendered from previous commands.
+        reused = tile;
+        break;
+      }
+      if (reused == null || tile.last_drawn < reused.last_drawn)
+        reused = tile;
+    }
+
+    reused.column = column;
+    reused.row = row;
+    reused.commands = commands;
+    render(reused);
+    return reused;
+  }
+
+  /**
+  Render the bitmaps overlapping a tile into its bitmap.
+  */
+  private void render(Tile tile)
+  {
+    RenderCommandBuffer commands = tile.commands;
+    int tile_left = tile.column * TILE_SIZE, tile_top = tile.row * TILE_SIZE;
+    boolean empty = true;
+    for (int i = 0; i < commands.bitmap_count; ++i)
+    {
+      Bitmap bitmap = commands.bitmaps[i];
+      int width = bitmap.getWidth(), height = bitmap.getHeight();
+      //The circle around a bitmap contains it at any rotation.
+      int radius = (int) Math.ceil(Math.sqrt(width * width + height * height) /
+                                   2.0) + 1;
+      int x = commands.bitmap_x[i] - tile_left;
+      int y = commands.bitmap_y[i] - tile_top;
+      if (x + radius < 0 || x - radius > TILE_SIZE || y + radius < 0 ||
+          y - radius > TILE_SIZE)
+        continue;
+
+      if (empty)
+      {
+        if (tile.bitmap == null)
+        {
+          tile.bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE,
+                                            Bitmap.Config.RGB_565);
+        }
+        tile.bitmap.eraseColor(Color.BLACK);
+        tile_canvas.setBitmap(tile.bitmap);
+        empty = false;
+      }
+      matrix.setTranslate(-(width / 2), -(height / 2));
+      matrix.postRotate((float) (commands.bitmap_angle[i] *
+                                 (180.0f / Math.PI)));
+      matrix.postTranslate(x, y);
+      tile_canvas.drawBitmap(bitmap, matrix, null);
+    }
+    tile.empty = empty;
+  }
+
+  /**
+  Get the column or row of the tile containing a position.
+  */
+  private static int tileOf(int position)
+  {
+    return (int) Math.floor(position / (float) TILE_SIZE);
+  }
+}
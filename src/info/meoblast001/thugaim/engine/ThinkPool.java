@@ -0,0 +1,207 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.engine;
+
+/**
+Calls {@link Actor#think(long, float, boolean) think()} on many actors using
+several threads. The actors are split into one contiguous range per thread, and
+the calling thread thinks for the first range while worker threads think for
+the others. Since actors only read shared state while thinking, the results do
+not depend on the amount of threads.
+*/
+class ThinkPool
+{
+  /**
+  Thinks for one range of actors each time the pool is given work.
+  */
+  private class Worker extends Thread
+  {
+    private final int range;
+
+    public Worker(int range)
+    {
+      super("Think " + range);
+      this.range = range;
+      //Never keep the process alive, such as when a headless engine is
+      //discarded without shutting down its pool.
+      setDaemon(true);
+    }
+
+    @Override
+    public void run()
+    {
+      int seen_generation = 0;
+      while (true)
+      {
+        synchronized (ThinkPool.this)
+        {
+          while (running && generation == seen_generation)
+          {
+            try
+            {
+              ThinkPool.this.wait();
+            }
+            catch (InterruptedException e)
+            {
+              //Check again.
+            }
+          }
+          if (!running)
+            return;
+          seen_generation = generation;
+        }
+
+        RuntimeException exception = null;
+        try
+        {
+          thinkRange(range);
+        }
+        catch (RuntimeException e)
+        {
+          exception = e;
+        }
+
+        synchronized (ThinkPool.this)
+        {
+          if (exception != null && worker_exception == null)
+            worker_exception = exception;
+          if (--remaining_workers == 0)
+            ThinkPool.this.notifyAll();
+        }
+      }
+    }
+  }
+
+  private final Worker[] workers;
+  private boolean running = true;
+  //Incremented each time the workers are given work.
+  private int generation = 0;
+  private int remaining_workers = 0;
+  private RuntimeException worker_exception = null;
+
+  //Work of the current generation.
+  private Actor[] actors;
+  private long[] millisecond_deltas;
+  private int actor_count;
+  private float rotation;
+  private boolean tapped;
+
+  /**
+  Construct pool and start its worker threads.
+  @param thread_count Amount of threads thinking, including the calling thread.
+    If 1 or less, all actors think on the calling thread and no worker threads
+    are started.
+  */
+  public ThinkPool(int thread_count)
+  {
+    workers = new Worker[Math.max(0, thread_count - 1)];
+    for (int i = 0; i < workers.length; ++i)
+    {
+      workers[i] = new Worker(i + 1);
+      workers[i].start();
+    }
+  }
+
+  /**
+  Get the amount of threads thinking, including the calling thread.
+  @return Amount of threads.
+  */
+  public int getThreadCount()
+  {
+    return workers.length + 1;
+  }
+
+  /**
+  Call think() on actors and wait until all have finished. Parameters after the
+  amount of actors are passed to think().
+  @param actors Actors which think. Must not change until this method returns.
+  @param millisecond_deltas Milliseconds passed to think() of the actor at the
+    same index.
+  @param actor_count Amount of actors at the start of the array which think.
+  */
+  public void think(Actor[] actors, long[] millisecond_deltas, int actor_count,
+                    float rotation, boolean tapped)
+  {
+    this.actors = actors;
+    this.millisecond_deltas = millisecond_deltas;
+    this.actor_count = actor_count;
+    this.rotation = rotation;
+    this.tapped = tapped;
+
+    //Not worth waking the workers if there are fewer actors than threads.
+    if (workers.length == 0 || actor_count < getThreadCount())
+    {
+      for (int i = 0; i < actor_count; ++i)
+        actors[i].think(millisecond_deltas[i], rotation, tapped);
+      this.actors = null;
+      return;
+    }
+
+    synchronized (this)
+    {
+      remaining_workers = workers.length;
+      ++generation;
+      notifyAll();
+    }
+
+    RuntimeException exception = null;
+    try
+    {
+      thinkRange(0);
+    }
+    catch (RuntimeException e)
+    {
+      exception = e;
+    }
+
+    synchronized (this)
+    {
+      while (remaining_workers > 0)
+      {
+        try
+        {
+          wait();
+        }
+        catch (InterruptedException e)
+        {
+          //Workers must finish before the actors change.
+        }
+      }
+      if (exception == null)
+        exception = worker_exception;
+      worker_exception = null;
+    }
+    this.actors = null;
+
+    //Exceptions in the worker threads are thrown on the calling thread.
+    if (exception != null)
+      throw exception;
+  }
+
+  /**
+  Stop the worker threads. The pool must not be used afterward.
+  */
+  public synchronized void shutdown()
+  {
+    running = false;
+    notifyAll();
+  }
+
+  /**
+  Call think() on the actors in one range.
+  @param range Index of the range, from 0 to the amount of threads - 1.
+  */
+  private void thinkRange(int range)
+  {
+    int thread_count = getThreadCount();
+    int start = (int) ((long) actor_count * range / thread_count);
+    int end = (int) ((long) actor_count * (range + 1) / thread_count);
+    for (int i = start; i < end; ++i)
+      actors[i].think(millisecond_deltas[i], rotation, tapped);
+  }
+}
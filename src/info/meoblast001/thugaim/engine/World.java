@@ -7,10 +7,10 @@ license. See the LICENSE file for details.
 
 package info.meoblast001.thugaim.engine;
 
-import android.graphics.Point;
 import android.graphics.PointF;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 
 /**
@@ -18,20 +18,59 @@ Represents the game world and manages its contents.
 */
 public class World
 {
+  //Width and height of each cell in the spatial grid.
+  private static final float GRID_CELL_SIZE = 128.0f;
+
+  private static final int INITIAL_CAPACITY = 64;
+  //A handle is a slot in the handle table in its low bits and the generation of
+  //that slot in its high bits, so that the handle of a removed actor does not
+  //find an actor which later reuses the slot.
+  private static final int HANDLE_SLOT_BITS = 16;
+  private static final int HANDLE_SLOT_MASK = (1 << HANDLE_SLOT_BITS) - 1;
+
   private Engine engine;
   private int play_size;
-  private HashMap<String, Actor> actors = new HashMap<String, Actor>();
+  //All actors, stored contiguously in no particular order. A removed actor is
+  //replaced by the last actor.
+  private Actor[] actors = new Actor[INITIAL_CAPACITY];
+  private int actor_count = 0;
+  //Actor in each handle slot, or null if the slot is free.
+  private Actor[] handle_actors = new Actor[INITIAL_CAPACITY];
+  private int[] handle_generations = new int[INITIAL_CAPACITY];
+  private int[] free_handle_slots = new int[INITIAL_CAPACITY];
+  private int free_handle_slot_count = 0;
+  private int used_handle_slot_count = 0;
+  //Actors by their ID string, which is only a name for lookup and debugging.
+  private HashMap<String, Actor> named_actors = new HashMap<String, Actor>();
+  private SpatialGrid grid;
+  private CollisionSystem collision_system;
   private Actor actor_focus = null;
+  //While updating, actors inserted or removed are only added to or removed from
+  //the actor array afterward, so that the actors being updated do not move.
+  private boolean updating = false;
+  private ArrayList<Actor> pending_inserts = new ArrayList<Actor>();
+  private ArrayList<Actor> pending_removes = new ArrayList<Actor>();
+  private LodScheduler lod_scheduler = new LodScheduler();
+  //Reused by update() to hold the actors updated this frame, which think first,
+  //and the milliseconds with which each actor in the actor array is updated,
+  //or -1 if it is not updated.
+  private Actor[] thinking_actors = new Actor[INITIAL_CAPACITY];
+  private long[] thinking_deltas = new long[INITIAL_CAPACITY];
+  private long[] update_deltas = new long[INITIAL_CAPACITY];
 
   public World(Engine engine, int play_size)
   {
     this.engine = engine;
     this.play_size = play_size;
+    grid = new SpatialGrid(play_size, GRID_CELL_SIZE);
+    collision_system = new CollisionSystem(grid);
   }
 
   /**
   Inserts an actor into the world if it is not already in a world. Also signals
-  the actor of the world change.
+  the actor of the world change. The actor is given a handle by which it can be
+  found. If inserted while the world is updating, the actor is first updated in
+  the next update.
   @param actor Actor to be inserted.
   @return True if inserted, false if the actor is already in a world.
   */
@@ -40,39 +79,259 @@ public class World
     if (actor.getWorld() != null)
       return false;
     actor.setWorld(this);
-    actors.put(actor.getId(), actor);
+    actor.handle = allocateHandle(actor);
+    if (actor.getId() != null)
+      named_actors.put(actor.getId(), actor);
+    grid.insert(actor);
+    if (updating)
+      pending_inserts.add(actor);
+    else
+      addToActors(actor);
     return true;
   }
 
   /**
-  Removes an actor from the world if it is already in the world. Signals the
-  actor that it has been removed from the world.
+  Removes an actor from the world if it is in the world. Signals the actor that
+  it has been removed from the world and disposes of it. A removed actor must
+  not be inserted again. If removed while the world is updating, the actor is
+  not updated afterward and its handle is not reused until the update ends.
+  @param actor Actor to remove.
+  */
+  public void removeActor(Actor actor)
+  {
+    if (actor.getWorld() != this)
+      return;
+    grid.remove(actor);
+    if (actor.getId() != null && named_actors.get(actor.getId()) == actor)
+      named_actors.remove(actor.getId());
+    actor.setWorld(null);
+    actor.dispose();
+    if (updating)
+      pending_removes.add(actor);
+    else
+      removeFromActors(actor);
+  }
+
+  /**
+  Removes an actor from the world if it is in the world. Equivalent to
+  {@link #removeActor(Actor) removeActor()} with the actor found by
+  {@link #getActor(String) getActor()}.
   @param actor_id ID string of the actor to remove.
   */
   public void removeActor(String actor_id)
   {
-    Actor removed = actors.remove(actor_id);
+    Actor removed = named_actors.get(actor_id);
     if (removed != null)
-      removed.setWorld(null);
+      removeActor(removed);
   }
 
   /**
-  Get an actor by its ID string.
+  Apply inserts and removes made while updating to the actor array.
+  */
+  private void commitPendingActors()
+  {
+    for (int i = 0; i < pending_inserts.size(); ++i)
+    {
+      Actor actor = pending_inserts.get(i);
+      //An actor removed in the same update is in pending_removes too.
+      if (actor.getWorld() == this)
+        addToActors(actor);
+    }
+    pending_inserts.clear();
+    for (int i = 0; i < pending_removes.size(); ++i)
+      removeFromActors(pending_removes.get(i));
+    pending_removes.clear();
+  }
+
+  private void addToActors(Actor actor)
+  {
+    if (actor_count == actors.length)
+    {
+      Actor[] grown = new Actor[actors.length * 2];
+      System.arraycopy(actors, 0, grown, 0, actor_count);
+      actors = grown;
+    }
+    actor.actor_index = actor_count;
+    actors[actor_count++] = actor;
+  }
+
+  private void removeFromActors(Actor actor)
+  {
+    //Actors inserted and removed in the same update were never added.
+    if (actor.actor_index >= 0)
+    {
+      Actor last = actors[--actor_count];
+      actors[actor.actor_index] = last;
+      last.actor_index = actor.actor_index;
+      actors[actor_count] = null;
+      actor.actor_index = -1;
+    }
+    freeHandle(actor.handle);
+    actor.handle = -1;
+  }
+
+  private int allocateHandle(Actor actor)
+  {
+    int slot;
+    if (free_handle_slot_count > 0)
+      slot = free_handle_slots[--free_handle_slot_count];
+    else
+    {
+      if (used_handle_slot_count > HANDLE_SLOT_MASK)
+        throw new IllegalStateException("Too many actors in world.");
+      if (used_handle_slot_count == handle_actors.length)
+      {
+        int capacity = handle_actors.length * 2;
+        Actor[] grown_actors = new Actor[capacity];
+        System.arraycopy(handle_actors, 0, grown_actors, 0,
+                         handle_actors.length);
+        handle_actors = grown_actors;
+        int[] grown_generations = new int[capacity];
+        System.arraycopy(handle_generations, 0, grown_generations, 0,
+                         handle_generations.length);
+        handle_generations = grown_generations;
+        int[] grown_free = new int[capacity];
+        System.arraycopy(free_handle_slots, 0, grown_free, 0,
+                         free_handle_slot_count);
+        free_handle_slots = grown_free;
+      }
+      slot = used_handle_slot_count++;
+    }
+    handle_actors[slot] = actor;
+    //Keep handles non-negative so that -1 means no handle.
+    return (handle_generations[slot] << HANDLE_SLOT_BITS | slot) &
+           Integer.MAX_VALUE;
+  }
+
+  private void freeHandle(int handle)
+  {
+    int slot = handle & HANDLE_SLOT_MASK;
+    handle_actors[slot] = null;
+    ++handle_generations[slot];
+    free_handle_slots[free_handle_slot_count++] = slot;
+  }
+
+  /**
+  Called by actors in this world when their position changes so that spatial
+  queries remain accurate.
+  @param actor Actor which moved.
+  */
+  void actorMoved(Actor actor)
+  {
+    grid.update(actor);
+  }
+
+  /**
+  Get the collision system finding collisions between actors in this world.
+  @return Collision system.
+  */
+  CollisionSystem getCollisionSystem()
+  {
+    return collision_system;
+  }
+
+  /**
+  Get the amount of pairs of actors found colliding after the most recent
+  update.
+  @return Amount of pairs.
+  */
+  public int getCollisionPairCount()
+  {
+    return collision_system.getPairCount();
+  }
+
+  /**
+  Find the first actor in this world hit by an actor moving in a straight line.
+  The moving actor is treated as a circle swept along the line, so nothing is
+  passed through however far it moves.
+  @param actor Moving actor, at the start of the line. Need not be inserted
+    into this world.
+  @param to_x X position of the end of the line.
+  @param to_y Y position of the end of the line.
+  @param type Only actors which are instances of this class are hit. All actors
+    if null.
+  @param exclude Actor which is never hit. May be null.
+  @return Actor hit first, or null if none.
+  */
+  public Actor sweep(Actor actor, float to_x, float to_y, Class<?> type,
+                     Actor exclude)
+  {
+    return collision_system.sweep(actor, to_x, to_y, type, exclude);
+  }
+
+  /**
+  Get an actor by its ID string. Slower than
+  {@link #getActor(int) getActor()} with the actor's handle.
   @param actor_id ID string of actor.
   @return Actor if found or null if not found.
   */
   public Actor getActor(String actor_id)
   {
-    return actors.get(actor_id);
+    return named_actors.get(actor_id);
+  }
+
+  /**
+  Get an actor by its handle.
+  @param handle Handle of actor, from {@link Actor#getHandle()}.
+  @return Actor if found or null if the actor has been removed.
+  */
+  public Actor getActor(int handle)
+  {
+    if (handle < 0)
+      return null;
+    int slot = handle & HANDLE_SLOT_MASK;
+    if (slot >= used_handle_slot_count ||
+        ((handle_generations[slot] << HANDLE_SLOT_BITS | slot) &
+         Integer.MAX_VALUE) != handle)
+      return null;
+    Actor actor = handle_actors[slot];
+    return actor != null && actor.getWorld() == this ? actor : null;
   }
 
   /**
-  Get an array of all actors in world in no particular order.
+  Get the amount of actors which can be iterated with
+  {@link #getActorAt(int) getActorAt()}.
+  @return Amount of actors.
+  */
+  public int getActorCount()
+  {
+    return actor_count;
+  }
+
+  /**
+  Get an actor by its position among all actors, in no particular order. Unlike
+  {@link #getActors() getActors()}, iterating actors this way allocates nothing.
+  While the world is updating, actors removed during the update remain until
+  the update ends and actors inserted do not appear until then; skip actors
+  whose world is not this world.
+  @param index Index from 0 to {@link #getActorCount() getActorCount()} - 1.
+  @return Actor.
+  */
+  public Actor getActorAt(int index)
+  {
+    return actors[index];
+  }
+
+  /**
+  Get an array of all actors in world in no particular order. Allocates a new
+  array; prefer {@link #getActorAt(int) getActorAt()} in code which runs every
+  frame.
   @return Array of actors.
   */
   public Actor[] getActors()
   {
-    return actors.values().toArray(new Actor[0]);
+    ArrayList<Actor> result = new ArrayList<Actor>(actor_count);
+    for (int i = 0; i < actor_count; ++i)
+    {
+      if (actors[i].getWorld() == this)
+        result.add(actors[i]);
+    }
+    for (int i = 0; i < pending_inserts.size(); ++i)
+    {
+      if (pending_inserts.get(i).getWorld() == this)
+        result.add(pending_inserts.get(i));
+    }
+    return result.toArray(new Actor[result.size()]);
   }
 
   /**
@@ -84,16 +343,129 @@ public class World
   */
   public boolean hasActorAt(PointF position, float extra_space)
   {
-    for (Actor actor : actors.values())
+    return hasActorAt(position.x, position.y, extra_space);
+  }
+
+  /**
+  Is there an actor at the specified location?
+  @param x X position to check.
+  @param y Y position to check.
+  @param extra_space Additional distance around the edge of actors to include as
+    a hit.
+  @return True if actor found, else false.
+  */
+  public boolean hasActorAt(float x, float y, float extra_space)
+  {
+    //Any actor whose edge is within extra_space has its centre within this
+    //radius.
+    ArrayList<Actor> nearby = new ArrayList<Actor>();
+    grid.queryRadius(x, y, grid.getMaxActorRadius() + extra_space, null,
+                     nearby);
+    for (Actor actor : nearby)
     {
-      Point size = actor.getSize();
-      float avg_size = (size.x + size.y) / 2.0f;
-      if (actor.distance(position) < avg_size / 2.0f + extra_space)
+      if (actor.distance(x, y) < actor.getRadius() + extra_space)
         return true;
     }
     return false;
   }
 
+  /**
+  Find all actors whose centre is within a radius of a point.
+  @param x X position of the centre of the search.
+  @param y Y position of the centre of the search.
+  @param radius Maximum distance from the centre.
+  @param result Collection to which found actors are added.
+  */
+  public void getActorsInRadius(float x, float y, float radius,
+                                Collection<Actor> result)
+  {
+    grid.queryRadius(x, y, radius, null, result);
+  }
+
+  /**
+  Find all actors of a particular class whose centre is within a radius of a
+  point. Parameters match those of
+  {@link #getActorsInRadius(float, float, float, Collection)
+  getActorsInRadius()}.
+  @param type Only actors which are instances of this class are found.
+  */
+  public void getActorsInRadius(float x, float y, float radius, Class<?> type,
+                                Collection<Actor> result)
+  {
+    grid.queryRadius(x, y, radius, type, result);
+  }
+
+  /**
+  Find all actors whose centre is within an axis-aligned rectangle.
+  @param left Minimum X position.
+  @param top Minimum Y position.
+  @param right Maximum X position.
+  @param bottom Maximum Y position.
+  @param result Collection to which found actors are added.
+  */
+  public void getActorsInRect(float left, float top, float right, float bottom,
+                              Collection<Actor> result)
+  {
+    grid.queryRect(left, top, right, bottom, null, result);
+  }
+
+  /**
+  Find the actors nearest to a point.
+  @param x X position of the centre of the search.
+  @param y Y position of the centre of the search.
+  @param k Maximum amount of actors to find.
+  @param type Only actors which are instances of this class are found. All
+    actors if null.
+  @param exclude Actor which is never found (usually the actor searching). May
+    be null.
+  @param result Collection to which found actors are added, nearest first.
+  */
+  public void getNearestActors(float x, float y, int k, Class<?> type,
+                               Actor exclude, Collection<Actor> result)
+  {
+    grid.queryNearest(x, y, k, type, exclude, result);
+  }
+
+  /**
+  Find the single actor nearest to a point. Parameters match those of
+  {@link #getNearestActors(float, float, int, Class, Actor, Collection)
+  getNearestActors()}.
+  @return Nearest actor or null if none found.
+  */
+  public Actor getNearestActor(float x, float y, Class<?> type, Actor exclude)
+  {
+    ArrayList<Actor> result = new ArrayList<Actor>(1);
+    grid.queryNearest(x, y, 1, type, exclude, result);
+    return result.size() > 0 ? result.get(0) : null;
+  }
+
+  /**
+  Find the actor nearest to a point whose centre is within a cone starting at
+  the point, such as the first actor in the line of fire. Only the cells of the
+  spatial grid covered by the cone are searched.
+  @param x X position of the apex of the cone.
+  @param y Y position of the apex of the cone.
+  @param direction_x X component of the unit vector along the centre of the
+    cone, such as {@link Actor#getRotationUnitX()}.
+  @param direction_y Y component of the unit vector along the centre of the
+    cone, such as {@link Actor#getRotationUnitY()}.
+  @param half_angle Maximum angle in radians between the centre of the cone and
+    the direction to a found actor. At most PI / 2.
+  @param range Maximum distance from the apex.
+  @param type Only actors which are instances of this class are found. All
+    actors if null.
+  @param exclude Actor which is never found (usually the actor searching). May
+    be null.
+  @return Nearest actor in the cone, or null if none found.
+  */
+  public Actor getFirstActorInCone(float x, float y, float direction_x,
+                                   float direction_y, float half_angle,
+                                   float range, Class<?> type, Actor exclude)
+  {
+    return grid.queryCone(x, y, direction_x, direction_y, half_angle, range,
+                          type, exclude);
+  }
+
   /**
   Specify the actor which the world (and therefore the play screen) will focus
   on.
@@ -101,13 +473,36 @@ public class World
   */
   public void focusOnActor(String actor_id)
   {
-    actor_focus = actors.get(actor_id);
+    actor_focus = named_actors.get(actor_id);
+  }
+
+  /**
+  Specify the actor which the world (and therefore the play screen) will focus
+  on.
+  @param actor Actor in this world.
+  */
+  public void focusOnActor(Actor actor)
+  {
+    actor_focus = actor;
+  }
+
+  /**
+  Get the scheduler deciding how often actors are updated based on their
+  distance from the focus.
+  @return LodScheduler reference.
+  */
+  public LodScheduler getLodScheduler()
+  {
+    return lod_scheduler;
   }
 
   /**
-  Updates all actors. If an actor is outside the relevant play area, an idle
-  update occurs, which performs actual updates less frequently to improve
-  performance.
+  Updates actors. Actors far from the focus are updated less often or not at
+  all, as decided by the LodScheduler. Before any actor is updated, the actors
+  updated this frame think, possibly on several threads. Actors inserted or
+  removed by the updates are added to or removed from the actor array once all
+  actors are updated. Afterward, the collisions of all actors are found at their
+  new positions, for the actors to handle in their next update.
   @param millisecond_delta Milliseconds elapsed since last call.
   @param rotation Rotation of the device, where positive values are clockwise
     and negative values are counter-clockwise.
@@ -115,24 +510,66 @@ public class World
   */
   public void update(long millisecond_delta, float rotation, boolean tapped)
   {
-    Graphics graphics = engine.getGraphics();
+    IRenderer graphics = engine.getGraphics();
+    Profiler profiler = engine.getProfiler();
+
+    graphics.focusOn((int) actor_focus.getX(), (int) actor_focus.getY());
+    //Distances from the focus are scheduled in screens.
+    float screen_size = Math.max(graphics.getWidth(), graphics.getHeight());
+    float screen_size_squared = Math.max(1.0f, screen_size * screen_size);
+
+    updating = true;
+    if (thinking_actors.length < actor_count)
+    {
+      thinking_actors = new Actor[actors.length];
+      thinking_deltas = new long[actors.length];
+      update_deltas = new long[actors.length];
+    }
+    lod_scheduler.beginFrame();
+    int thinking_count = 0;
+    for (int i = 0; i < actor_count; ++i)
+    {
+      Actor actor = actors[i];
+      update_deltas[i] = lod_scheduler.schedule(actor,
+        actor_focus.distanceSquared(actor) / screen_size_squared,
+        millisecond_delta);
+      if (update_deltas[i] >= 0)
+      {
+        thinking_actors[thinking_count] = actor;
+        thinking_deltas[thinking_count] = update_deltas[i];
+        ++thinking_count;
+      }
+    }
 
-    PointF focus_position = actor_focus.getPosition();
-    graphics.focusOn((int) focus_position.x, (int) focus_position.y);
+    //Nothing changes while thinking, so every actor thinks about the world as
+    //it was at the end of the previous update.
+    long started = profiler.begin();
+    engine.getThinkPool().think(thinking_actors, thinking_deltas,
+                                thinking_count, rotation, tapped);
+    profiler.end(Profiler.PHASE_THINK, started);
+    for (int i = 0; i < thinking_count; ++i)
+      thinking_actors[i] = null;
 
-    ArrayList<String> actor_ids = new ArrayList<String>(actors.keySet());
-    for (String actor_id : actor_ids)
+    for (int i = 0; i < actor_count; ++i)
     {
-      Actor actor = actors.get(actor_id);
-      if (actor == null)
+      Actor actor = actors[i];
+      //Skip actors not updated this frame and actors removed by updates of
+      //previous actors.
+      if (update_deltas[i] < 0 || actor.getWorld() != this)
         continue;
 
-      if (actor_focus.distance(actor) < Math.max(graphics.getWidth(),
-                                                 graphics.getHeight()))
-        actor.update(millisecond_delta, rotation, tapped);
-      else
-        actor.idleUpdate(millisecond_delta, rotation, tapped);
+      started = profiler.begin();
+      actor.update(update_deltas[i], rotation, tapped);
+      //Time is measured separately for each class of actor.
+      if (started != 0)
+        profiler.end(profiler.getClassPhase(actor.getClass()), started);
     }
+    updating = false;
+    commitPendingActors();
+
+    started = profiler.begin();
+    collision_system.update();
+    profiler.end(Profiler.PHASE_COLLISIONS, started);
   }
 
   /**
@@ -154,9 +591,8 @@ public class World
   */
   public boolean isInsidePlayArea(Actor actor, int extra_space)
   {
-    PointF position = actor.getPosition();
     int halved_play_size = play_size / 2;
-    return Math.abs(position.x) < halved_play_size + extra_space &&
-           Math.abs(position.y) < halved_play_size + extra_space;
+    return Math.abs(actor.getX()) < halved_play_size + extra_space &&
+           Math.abs(actor.getY()) < halved_play_size + extra_space;
   }
 }
@@ -0,0 +1,189 @@
+/*
+Copyright (C) 2016 Braden Walters
+
+This software may be modified and distributed under the terms of the MIT
+license. See the LICENSE file for details.
+*/
+
+package info.meoblast001.thugaim.npc;
+
+import info.meoblast001.thugaim.engine.Actor;
+import info.meoblast001.thugaim.engine.World;
+
+import java.util.Arrays;
+
+/**
+Spreads the expensive decisions of NPCs across frames so that the time spent on
+them in each frame stays within a budget. After each world update, the NPCs
+waiting longest relative to their distance from the player are allowed to
+decide in their next update, for as long as the estimated cost of their
+decisions fits in the budget. NPCs not allowed to decide keep acting on their
+previous decisions; cheap steering still happens every update.
+
+The cost of each NPC's decisions is a fixed estimate given by the NPC, so the
+same NPCs decide on any device and with any amount of threads. The time spent
+deciding is also measured, summed over all threads on which NPCs think, but
+only reported.
+*/
+public class AiScheduler
+{
+  //An NPC this far from the player is prioritised half as much as one at the
+  //player's position.
+  private static final float PRIORITY_DISTANCE = 256.0f;
+
+  private long budget_nanoseconds;
+
+  private long last_frame_nanoseconds = 0;
+  private int last_frame_decisions = 0;
+  private int overrun_count = 0;
+  private long max_overrun_nanoseconds = 0;
+
+  //Reused for each frame's candidates: score in the upper 32 bits, index in
+  //candidates in the lower 32 bits.
+  private NPCVehicle[] candidates = new NPCVehicle[64];
+  private long[] candidate_order = new long[64];
+
+  /**
+  Construct scheduler.
+  @param budget_microseconds Microseconds per frame which NPC decisions should
+    not exceed.
+  */
+  public AiScheduler(long budget_microseconds)
+  {
+    setBudget(budget_microseconds);
+  }
+
+  /**
+  Set the budget.
+  @param budget_microseconds Microseconds per frame which NPC decisions should
+    not exceed.
+  */
+  public void setBudget(long budget_microseconds)
+  {
+    budget_nanoseconds = budget_microseconds * 1000;
+  }
+
+  /**
+  Get the budget.
+  @return Microseconds per frame which NPC decisions should not exceed.
+  */
+  public long getBudget()
+  {
+    return budget_nanoseconds / 1000;
+  }
+
+  /**
+  Get the time NPCs spent deciding in the most recent frame.
+  @return Microseconds.
+  */
+  public long getLastFrameMicroseconds()
+  {
+    return last_frame_nanoseconds / 1000;
+  }
+
+  /**
+  Get the amount of NPCs which decided in the most recent frame.
+  @return Amount of NPCs.
+  */
+  public int getLastFrameDecisions()
+  {
+    return last_frame_decisions;
+  }
+
+  /**
+  Get the amount of frames in which NPCs spent longer deciding than the budget.
+  @return Amount of frames.
+  */
+  public int getOverrunCount()
+  {
+    return overrun_count;
+  }
+
+  /**
+  Get the most time by which NPCs exceeded the budget in one frame.
+  @return Microseconds.
+  */
+  public long getMaxOverrunMicroseconds()
+  {
+    return max_overrun_nanoseconds / 1000;
+  }
+
+  /**
+  Measure the decisions made in the world update which just finished and choose
+  the NPCs which decide in the next. Call once after each world update.
+  @param world World containing the NPCs.
+  @param player Actor by whose distance NPCs are prioritised. If null, all NPCs
+    are prioritised equally.
+  */
+  public void update(World world, Actor player)
+  {
+    long frame_nanoseconds = 0;
+    int frame_decisions = 0;
+    int candidate_count = 0;
+    for (int i = 0; i < world.getActorCount(); ++i)
+    {
+      Actor actor = world.getActorAt(i);
+      if (!(actor instanceof NPCVehicle) || actor.getWorld() != world)
+        continue;
+      NPCVehicle npc = (NPCVehicle) actor;
+
+      //NPCs decide freely until they are first scheduled.
+      if (!npc.decisions_scheduled)
+        npc.decisions_scheduled = true;
+
+      if (npc.decision_nanoseconds > 0)
+      {
+        frame_nanoseconds += npc.decision_nanoseconds;
+        ++frame_decisions;
+        npc.decision_nanoseconds = 0;
+      }
+
+      //NPCs already allowed to decide have not been updated since, such as
+      //those updated less than every frame.
+      if (npc.decisions_granted)
+        continue;
+      ++npc.decision_wait_frames;
+
+      float priority = npc.decision_wait_frames;
+      if (player != null)
+        priority /= 1.0f + npc.distance(player) / PRIORITY_DISTANCE;
+      if (candidate_count == candidates.length)
+      {
+        candidates = Arrays.copyOf(candidates, candidate_count * 2);
+        candidate_order = Arrays.copyOf(candidate_order, candidate_count * 2);
+      }
+      candidates[candidate_count] = npc;
+      //The bits of a positive float order the same as the float.
+      candidate_order[candidate_count] =
+        (long) Float.floatToIntBits(priority) << 32 | candidate_count;
+      ++candidate_count;
+    }
+
+    last_frame_nanoseconds = frame_nanoseconds;
+    last_frame_decisions = frame_decisions;
+    if (frame_nanoseconds > budget_nanoseconds)
+    {
+      ++overrun_count;
+      max_overrun_nanoseconds = Math.max(max_overrun_nanoseconds,
+        frame_nanoseconds - budget_nanoseconds);
+    }
+
+    //Allow the highest priorities to decide while their estimated cost fits.
+    //The highest priority always may, so that no NPC waits forever.
+    Arrays.sort(candidate_order, 0, candidate_count);
+    long estimated_nanoseconds = 0;
+    for (int i = candidate_count - 1; i >= 0; --i)
+    {
+      NPCVehicle npc = candidates[(int) candidate_order[i]];
+      long cost = npc.getDecisionCost();
+      if (estimated_nanoseconds + cost > budget_nanoseconds &&
+          i != candidate_count - 1)
+        break;
+      estimated_nanoseconds += cost;
+      npc.decisions_granted = true;
+      npc.decision_wait_frames = 0;
+    }
+    for (int i = 0; i < candidate_count; ++i)
+      candidates[i] = null;
+  }
+}
@@ -7,10 +7,10 @@ license. See the LICENSE file for details.
 
 package info.meoblast001.thugaim.npc;
 
-import android.graphics.Point;
-
+import info.meoblast001.thugaim.ProjectilePool;
 import info.meoblast001.thugaim.Station;
 import info.meoblast001.thugaim.StationGraph;
+import info.meoblast001.thugaim.engine.Actor;
 import info.meoblast001.thugaim.engine.Engine;
 import info.meoblast001.thugaim.engine.World;
 import info.meoblast001.thugaim.Vehicle;
@@ -34,15 +34,21 @@ public class HeliumFighter extends NPCVehicle
   private static final float FIRE_ANGLE_RADIANS = (float) (20.0f *
                                                            Math.PI / 180.0f);
   private static final float FIRING_RANGE = 250.0f;
+  //Estimated nanoseconds of finding a path to the player.
+  private static final long PATH_COST = 50000;
 
   private StationGraph station_graph = null;
   private Queue<Station> remaining_path_to_player = null;
   private Station player_station = null;
+  //Decided by think().
+  private boolean will_fire = false;
 
   public HeliumFighter(Engine engine, float x, float y, float rotation,
-                       StationGraph station_graph)
+                       StationGraph station_graph,
+                       ProjectilePool projectile_pool)
   {
-    super(engine, R.drawable.helium, x, y, rotation, MAX_HEALTH, station_graph);
+    super(engine, R.drawable.helium, x, y, rotation, MAX_HEALTH, station_graph,
+          projectile_pool);
     this.station_graph = station_graph;
     setSpeed(1.05f);
   }
@@ -53,10 +59,13 @@ public class HeliumFighter extends NPCVehicle
   @param world The current world.
   @param play_size Size of play area.
   @param station_graph The current station graph.
+  @param projectile_pool Pool from which fighters fire projectiles.
   @param num_fighters The amount of fighters to create.
   */
   public static void generateAll(Engine engine, World world, int play_size,
-                                 StationGraph station_graph, int num_fighters)
+                                 StationGraph station_graph,
+                                 ProjectilePool projectile_pool,
+                                 int num_fighters)
   {
     for (int i = 0; i < num_fighters; ++i)
     {
@@ -65,55 +74,83 @@ public class HeliumFighter extends NPCVehicle
         HeliumFighter fighter = new HeliumFighter(engine,
           (float) Math.random() * play_size - (play_size / 2),
           (float) Math.random() * play_size - (play_size / 2),
-          (float) (Math.random() * Math.PI / 180.0), station_graph);
-        Point fighter_size = fighter.getSize();
-        float avg_fighter_size = (fighter_size.x + fighter_size.y) / 2.0f;
-        if (!world.hasActorAt(fighter.getPosition(), avg_fighter_size / 2.0f +
+          (float) (Math.random() * Math.PI / 180.0), station_graph,
+          projectile_pool);
+        if (!world.hasActorAt(fighter.getX(), fighter.getY(),
+                              fighter.getRadius() +
                               FREE_SURROUNDING_SPACE_AT_INIT))
         {
           world.insertActor(fighter);
           break inner_loop;
         }
-        else; //Continue trying.
+        else
+          fighter.dispose(); //Continue trying.
       }
     }
   }
 
+  /**
+  Decides whether to fire: only if facing the player within range.
+  */
+  @Override
+  public void think(long millisecond_delta, float rotation, boolean tapped)
+  {
+    super.think(millisecond_delta, rotation, tapped);
+    will_fire = false;
+    if (getWorld() == null)
+      return;
+    Actor player = getPlayer();
+    if (player == null)
+      return;
+
+    //Is this fighter facing the player and at the appropriate distance?
+    will_fire = willFireAt(player, FIRE_ANGLE_RADIANS, FIRING_RANGE);
+  }
+
+  @Override
+  protected long getDecisionCost()
+  {
+    return PATH_COST;
+  }
+
   @Override
   public void update(long millisecond_delta, float rotation, boolean tapped)
   {
     if (getWorld() == null || getClosestStation() == null)
       return;
 
-    Vehicle player = (Vehicle) getWorld().getActor("player");
+    Vehicle player = getPlayer();
     if (player == null)
       return;
 
     //If the closest station to the player changes or the path to the player has
-    //not yet been determined, calculate it.
+    //not yet been determined, calculate it. Until allowed to decide, the
+    //previous path is followed, or the player is pursued directly if none.
     Station player_station = player.getClosestStation();
-    if (remaining_path_to_player == null ||
-        player_station != this.player_station)
+    if (isDeciding() && (remaining_path_to_player == null ||
+                         player_station != this.player_station))
     {
+      long started = beginDecision();
       remaining_path_to_player = station_graph.approxShortestPath(
         getClosestStation(), player_station);
       this.player_station = player_station;
+      endDecision(started);
     }
 
     //If the fighter gets too close to another station during its path, it
     //should prioritise not colliding with this station.
     Station closest_station = getClosestStation();
-    Point station_size = closest_station.getSize();
-    float station_avg_size = (station_size.x + station_size.y) / 2;
-    if (distance(closest_station) < station_avg_size * 1.75f)
-      flee(closest_station.getPosition(), millisecond_delta);
+    //The average size of the station is twice its radius.
+    float station_avg_size = closest_station.getRadius() * 2.0f;
+    if (distanceSquared(closest_station) <
+        station_avg_size * station_avg_size * 1.75f * 1.75f)
+      flee(closest_station.getX(), closest_station.getY(), millisecond_delta);
 
     //If an NPC player gets too close, avoid it.
     NPCVehicle avoiding_npc = getAvoidingNPC();
     if (avoiding_npc != null)
     {
-      evade(avoiding_npc.getPosition(), avoiding_npc.getRotation(),
-            millisecond_delta);
+      evade(avoiding_npc, millisecond_delta);
     }
 
     //If there are stations to follow on the way to the player, follow them.
@@ -121,19 +158,17 @@ public class HeliumFighter extends NPCVehicle
     {
       //If close to target station, pop the current station off the path and
       //seek the next.
-      if (distance(remaining_path_to_player.peek()) < 150.0f)
+      Station next_station = remaining_path_to_player.peek();
+      if (distanceSquared(next_station) < 150.0f * 150.0f)
         remaining_path_to_player.remove();
       //Else seek the current station.
       else
-        seek(remaining_path_to_player.peek().getPosition(), millisecond_delta);
+        seek(next_station.getX(), next_station.getY(), millisecond_delta);
     }
     //Else if no stations left to follow or a path could not be found, directly
     //pursue the player.
     else
-      pursue(player.getPosition(), player.getRotation(), millisecond_delta);
-
-    //Is this fighter facing the player and at the appropriate distance?
-    boolean will_fire = willFireAt(player, FIRE_ANGLE_RADIANS, FIRING_RANGE);
+      pursue(player, millisecond_delta);
 
     if (will_fire)
       fire();
@@ -7,9 +7,8 @@ license. See the LICENSE file for details.
 
 package info.meoblast001.thugaim.npc;
 
-import android.graphics.Point;
-
 import info.meoblast001.thugaim.Projectile;
+import info.meoblast001.thugaim.ProjectilePool;
 import info.meoblast001.thugaim.Station;
 import info.meoblast001.thugaim.StationGraph;
 import info.meoblast001.thugaim.engine.Actor;
@@ -31,15 +30,22 @@ public class HydrogenFighter extends NPCVehicle
   private static final float FIRE_ANGLE_RADIANS = (float) (30.0f *
                                                            Math.PI / 180.0f);
   private static final float FIRING_RANGE = 200.0f;
+  //Estimated nanoseconds of checking the line of fire.
+  private static final long LINE_OF_FIRE_COST = 500;
 
   private StationGraph station_graph = null;
   private Station target_station = null;
+  //Decided by think().
+  private boolean will_fire = false;
+  //Result of the most recent check of the line of fire.
+  private boolean line_of_fire_clear = false;
 
   public HydrogenFighter(Engine engine, float x, float y, float rotation,
-                         StationGraph station_graph)
+                         StationGraph station_graph,
+                         ProjectilePool projectile_pool)
   {
     super(engine, R.drawable.hydrogen, x, y, rotation, MAX_HEALTH,
-          station_graph);
+          station_graph, projectile_pool);
     this.station_graph = station_graph;
     setSpeed(0.8f);
   }
@@ -50,10 +56,13 @@ public class HydrogenFighter extends NPCVehicle
   @param world The current world.
   @param play_size Size of play area.
   @param station_graph The current station graph.
+  @param projectile_pool Pool from which fighters fire projectiles.
   @param num_fighters The amount of fighters to create.
   */
   public static void generateAll(Engine engine, World world, int play_size,
-                                 StationGraph station_graph, int num_fighters)
+                                 StationGraph station_graph,
+                                 ProjectilePool projectile_pool,
+                                 int num_fighters)
   {
     for (int i = 0; i < num_fighters; ++i)
     {
@@ -62,27 +71,85 @@ public class HydrogenFighter extends NPCVehicle
         HydrogenFighter fighter = new HydrogenFighter(engine,
           (float) Math.random() * play_size - (play_size / 2),
           (float) Math.random() * play_size - (play_size / 2),
-          (float) (Math.random() * Math.PI / 180.0), station_graph);
-        Point fighter_size = fighter.getSize();
-        float avg_fighter_size = (fighter_size.x + fighter_size.y) / 2.0f;
-        if (!world.hasActorAt(fighter.getPosition(), avg_fighter_size / 2.0f +
+          (float) (Math.random() * Math.PI / 180.0), station_graph,
+          projectile_pool);
+        if (!world.hasActorAt(fighter.getX(), fighter.getY(),
+                              fighter.getRadius() +
                               FREE_SURROUNDING_SPACE_AT_INIT))
         {
           world.insertActor(fighter);
           break inner_loop;
         }
-        else; //Continue trying.
+        else
+          fighter.dispose(); //Continue trying.
       }
     }
   }
 
+  /**
+  Decides whether to fire: only if facing the player within range and no other
+  NPC or station is in the line of fire. Checking the line of fire is the most
+  expensive part of the update, so it is only checked when allowed to decide.
+  */
+  @Override
+  public void think(long millisecond_delta, float rotation, boolean tapped)
+  {
+    super.think(millisecond_delta, rotation, tapped);
+    will_fire = false;
+    if (getWorld() == null)
+      return;
+    Actor player = getPlayer();
+    if (player == null)
+      return;
+
+    //Is this fighter facing the player and at the appropriate distance?
+    boolean aimed = willFireAt(player, FIRE_ANGLE_RADIANS, FIRING_RANGE);
+
+    //If the NPC plans on firing but another friendly actor may be at risk, stop
+    //firing. Until allowed to check again, the previous check is used.
+    if (isDeciding())
+    {
+      long started = beginDecision();
+      line_of_fire_clear = aimed && isLineOfFireClear(player);
+      endDecision(started);
+    }
+    will_fire = aimed && line_of_fire_clear;
+  }
+
+  @Override
+  protected long getDecisionCost()
+  {
+    return LINE_OF_FIRE_COST;
+  }
+
+  /**
+  Is no other NPC between this NPC and the player, and no station close in the
+  direction this NPC faces?
+  @param player The player.
+  @return True if clear, false if not.
+  */
+  private boolean isLineOfFireClear(Actor player)
+  {
+    World world = getWorld();
+    //If another NPC is between this NPC and the player character, don't fire.
+    if (world.getFirstActorInCone(getX(), getY(), getRotationUnitX(),
+          getRotationUnitY(), FIRE_ANGLE_RADIANS, distance(player),
+          NPCVehicle.class, this) != null)
+      return false;
+    //If a station is close within firing range and in the current direction,
+    //don't fire.
+    return world.getFirstActorInCone(getX(), getY(), getRotationUnitX(),
+      getRotationUnitY(), FIRE_ANGLE_RADIANS, Projectile.MAX_LENGTH * 0.8f,
+      Station.class, null) == null;
+  }
+
   @Override
   public void update(long millisecond_delta, float rotation, boolean tapped)
   {
     if (getWorld() == null || getClosestStation() == null)
       return;
 
-    Actor player = getWorld().getActor("player");
+    Actor player = getPlayer();
     if (player == null)
       return;
 
@@ -91,9 +158,10 @@ public class HydrogenFighter extends NPCVehicle
       target_station = getClosestStation();
 
     //If close to target station, change target to a random adjacent station.
-    Point station_size = target_station.getSize();
-    float station_avg_size = (station_size.x + station_size.y) / 2;
-    if (distance(target_station) < station_avg_size * 1.75f)
+    //The average size of the station is twice its radius.
+    float station_avg_size = target_station.getRadius() * 2.0f;
+    if (distanceSquared(target_station) <
+        station_avg_size * station_avg_size * 1.75f * 1.75f)
     {
       Station[] adjacent_stations = station_graph.getAdjacentStations(
         target_station);
@@ -111,52 +179,14 @@ public class HydrogenFighter extends NPCVehicle
       }
     }
 
-    //Is this fighter facing the player and at the appropriate distance?
-    boolean will_fire = willFireAt(player, FIRE_ANGLE_RADIANS, FIRING_RANGE);
-
-    //If the NPC plans on firing but another friendly actor may be at risk, stop
-    //firing.
-    if (will_fire)
-    {
-      for (Actor actor : getWorld().getActors())
-      {
-        //If another NPC is between this NPC and the player character, don't
-        //fire.
-        if (actor instanceof NPCVehicle && actor != this)
-        {
-          float rotation_to_actor = crossProduct(getRotationUnitVector(),
-            getUnitVectorToTarget(getPosition(), actor.getPosition()));
-          if (rotation_to_actor > -FIRE_ANGLE_RADIANS &&
-              rotation_to_actor < FIRE_ANGLE_RADIANS &&
-              distance(actor) < distance(player))
-          {
-            will_fire = false;
-            break;
-          }
-        }
-        //If a station is close within firing range and in the current
-        //direction, don't fire.
-        else if (actor instanceof Station)
-        {
-          float rotation_to_actor = crossProduct(getRotationUnitVector(),
-            getUnitVectorToTarget(getPosition(), actor.getPosition()));
-          if (rotation_to_actor > -FIRE_ANGLE_RADIANS &&
-              rotation_to_actor < FIRE_ANGLE_RADIANS &&
-              distance(actor) < Projectile.MAX_LENGTH  * 0.8f)
-          {
-            will_fire = false;
-            break;
-          }
-        }
-      }
-    }
+    //Fire if decided by think(), unless avoiding another NPC.
+    boolean will_fire = this.will_fire;
 
     //If an NPC player gets too close, avoid it.
     NPCVehicle avoiding_npc = getAvoidingNPC();
     if (avoiding_npc != null)
     {
-      evade(avoiding_npc.getPosition(), avoiding_npc.getRotation(),
-            millisecond_delta);
+      evade(avoiding_npc, millisecond_delta);
       will_fire = false;
     }
 
@@ -165,10 +195,10 @@ public class HydrogenFighter extends NPCVehicle
 
     //If the player character is close, go directly toward the player, else go
     //toward the target station.
-    if (distance(player) < 225.0f)
-      pursue(player.getPosition(), player.getRotation(), millisecond_delta);
+    if (distanceSquared(player) < 225.0f * 225.0f)
+      pursue(player, millisecond_delta);
     else
-      seek(target_station.getPosition(), millisecond_delta);
+      seek(target_station.getX(), target_station.getY(), millisecond_delta);
 
     super.update(millisecond_delta, rotation, tapped);
   }
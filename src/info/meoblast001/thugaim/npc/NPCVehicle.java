@@ -7,30 +7,41 @@ license. See the LICENSE file for details.
 
 package info.meoblast001.thugaim.npc;
 
-import android.graphics.PointF;
-
+import info.meoblast001.thugaim.ProjectilePool;
 import info.meoblast001.thugaim.StationGraph;
 import info.meoblast001.thugaim.Vehicle;
 import info.meoblast001.thugaim.engine.Actor;
 import info.meoblast001.thugaim.engine.Engine;
 
+import java.util.List;
+
 /**
 Base vehicle class for all NPCs. Includes common functionality all NPCs have and
 provides helper methods.
 */
 public abstract class NPCVehicle extends Vehicle
 {
-  private static short current_fighter_id = 0;
-
   private NPCVehicle avoiding_npc = null;
   private static final int AVOID_NPC_TIME_MILLISECONDS = 2500;
   private int remaining_avoiding_npc_milliseconds = 0;
+  //Handle of the player in the world, found by name only once.
+  private int player_handle = -1;
+
+  //Decision state. Only managed by AiScheduler.
+  boolean decisions_scheduled = false;
+  boolean decisions_granted = false;
+  int decision_wait_frames = 0;
+  //Measured nanoseconds of decisions, only reported.
+  long decision_nanoseconds = 0;
+  //May expensive decisions be made in the current update?
+  private boolean deciding = true;
 
   public NPCVehicle(Engine engine, int bitmap_resource, float x, float y,
-                    float rotation, int health, StationGraph station_graph)
+                    float rotation, int health, StationGraph station_graph,
+                    ProjectilePool projectile_pool)
   {
-    super(engine, "npc_" + current_fighter_id++, bitmap_resource, x, y,
-          rotation, health, station_graph);
+    super(engine, null, bitmap_resource, x, y, rotation, health, station_graph,
+          projectile_pool);
   }
 
   @Override
@@ -43,55 +54,60 @@ public abstract class NPCVehicle extends Vehicle
 
   /**
   Rotate to reach a particular target.
-  @param target The location of the target.
+  @param target_x X position of the target.
+  @param target_y Y position of the target.
   @param millisecond_delta Milliseconds elapsed since last frame.
   */
-  protected void seek(PointF target, long millisecond_delta)
+  protected void seek(float target_x, float target_y, long millisecond_delta)
   {
-    rotate(
-      crossProduct(getRotationUnitVector(),
-                   getUnitVectorToTarget(getPosition(), target)) * 8.0f,
-      millisecond_delta);
+    rotate(crossRotationToTarget(getX(), getY(), target_x, target_y) * 8.0f,
+           millisecond_delta);
   }
 
   /**
   Rotate to reach the location to which a particular target is going.
-  @param target The location of the target (current location).
-  @param rotation The rotation of the target.
+  @param target The target.
   @param millisecond_delta Milliseconds elapsed since last frame.
   */
-  protected void pursue(PointF target, float rotation, long millisecond_delta)
+  protected void pursue(Actor target, long millisecond_delta)
   {
-    target = new PointF(target.x + (float) Math.sin(rotation),
-                        target.y + (float) -Math.cos(rotation));
-    seek(target, millisecond_delta);
+    seek(target.getX() + target.getRotationUnitX(),
+         target.getY() + target.getRotationUnitY(), millisecond_delta);
   }
 
   /**
   Rotate to go in the opposite direction of the target. Flees from the target.
-  @param target The location of the target.
+  @param target_x X position of the target.
+  @param target_y Y position of the target.
   @param millisecond_delta Milliseconds elapsed since last frame.
   */
-  protected void flee(PointF target, long millisecond_delta)
+  protected void flee(float target_x, float target_y, long millisecond_delta)
   {
-    rotate(
-      crossProduct(getRotationUnitVector(),
-                   getUnitVectorToTarget(target, getPosition())) * 8.0f,
-      millisecond_delta);
+    rotate(crossRotationToTarget(target_x, target_y, getX(), getY()) * 8.0f,
+           millisecond_delta);
   }
 
   /**
   Rotate in the opposite direction of that which would reach the location to
   which the target is going.
-  @param target The location of the target (current location).
-  @param rotation The rotation of the target.
+  @param target The target.
   @param millisecond_delta Milliseconds elapsed since last frame.
   */
-  protected void evade(PointF target, float rotation, long millisecond_delta)
+  protected void evade(Actor target, long millisecond_delta)
+  {
+    flee(target.getX() + target.getRotationUnitX(),
+         target.getY() + target.getRotationUnitY(), millisecond_delta);
+  }
+
+  /**
+  Determines whether this NPC may make expensive decisions in this update.
+  Subclasses must call this before thinking.
+  */
+  @Override
+  public void think(long millisecond_delta, float rotation, boolean tapped)
   {
-    target = new PointF(target.x + (float) Math.sin(rotation),
-                        target.y + (float) -Math.cos(rotation));
-    flee(target, millisecond_delta);
+    deciding = !decisions_scheduled || decisions_granted;
+    decisions_granted = false;
   }
 
   @Override
@@ -113,8 +129,10 @@ public abstract class NPCVehicle extends Vehicle
     //that it should avoid.
     if (avoiding_npc == null)
     {
-      for (Actor collision : getCollisions())
+      List<Actor> collisions = getCollisions();
+      for (int i = 0; i < collisions.size(); ++i)
       {
+        Actor collision = collisions.get(i);
         if (collision instanceof NPCVehicle)
         {
           avoiding_npc = (NPCVehicle) collision;
@@ -126,6 +144,61 @@ public abstract class NPCVehicle extends Vehicle
     super.update(millisecond_delta, rotation, tapped);
   }
 
+  /**
+  Get the player from the world.
+  @return Player, or null if the player is not in the world.
+  */
+  protected Vehicle getPlayer()
+  {
+    if (player_handle < 0)
+    {
+      Actor player = getWorld().getActor("player");
+      if (player == null)
+        return null;
+      player_handle = player.getHandle();
+    }
+    return (Vehicle) getWorld().getActor(player_handle);
+  }
+
+  /**
+  May this NPC make expensive decisions in this update, in think() or update()?
+  If not, it should act on its previous decisions. Decisions are allowed by an
+  AiScheduler, or always if not scheduled.
+  @return True if yes, false if no.
+  */
+  protected boolean isDeciding()
+  {
+    return deciding;
+  }
+
+  /**
+  Get the fixed cost of this NPC's expensive decisions in one update, by which
+  the AiScheduler decides how many NPCs decide in each frame. A fixed estimate
+  is used instead of measured time so that which NPCs decide never depends on
+  the speed of the device or on threads.
+  @return Estimated nanoseconds.
+  */
+  protected abstract long getDecisionCost();
+
+  /**
+  Start measuring an expensive decision.
+  @return Value to pass to endDecision().
+  */
+  protected long beginDecision()
+  {
+    return System.nanoTime();
+  }
+
+  /**
+  Finish measuring an expensive decision, adding its time to that reported by
+  the AiScheduler.
+  @param started Value returned by beginDecision().
+  */
+  protected void endDecision(long started)
+  {
+    decision_nanoseconds += Math.max(1, System.nanoTime() - started);
+  }
+
   /**
   If this NPC is avoiding another NPC, that NPC is returned.
   @return Foreign NPC if one is being returned, else null.
@@ -149,11 +222,11 @@ public abstract class NPCVehicle extends Vehicle
                                float fire_range)
   {
     //The amount the fighter would need to rotate to face the target.
-    float rotation_to_target = crossProduct(getRotationUnitVector(),
-      getUnitVectorToTarget(getPosition(), desired_target.getPosition()));
+    float rotation_to_target = crossRotationToTarget(getX(), getY(),
+      desired_target.getX(), desired_target.getY());
     //If target is within firing angle and is near, this NPC will fire.
     return rotation_to_target > -fire_angle &&
            rotation_to_target < fire_angle &&
-           distance(desired_target) < fire_range;
+           distanceSquared(desired_target) < fire_range * fire_range;
   }
 }